@@ -8,6 +8,7 @@ import backend.global.Asciiz;
 import backend.global.Word;
 import backend.text.*;
 import backend.utils.RegAlloc;
+import backend.utils.StackSlotAlloc;
 import com.sun.jdi.connect.Connector;
 import middle.component.inst.*;
 import middle.component.inst.io.*;
@@ -29,12 +30,20 @@ public class MipsBuilder {
 
     private final boolean optimizeOn; // 优化开关
 
-    // 下面这三个是维护函数栈帧的核心变量
-    private int curStackOffset; // 当前栈顶相对于 FP/SP 的偏移量
+    // 下面这些是维护函数栈帧的核心变量
+    // 栈帧在进入函数时一次性分配，由低到高依次为：
+    // 栈参数区 | 调用点寄存器保存区 | 被调用者保存寄存器 | $ra | 参数槽 | 溢出槽 | 局部数组
+    // 所有偏移都相对于序言之后的 $sp；叶子函数不移动 $sp，栈帧直接位于 $sp 之下 (偏移为负)
+    private int frameSize; // 栈帧大小 (字节)
+    private boolean frameOnStack; // 是否在序言/尾声中移动 $sp (非叶子函数)
+    private int callSaveOffset; // 调用点保存调用者保存寄存器的区域
+    private int raOffset; // $ra 的保存位置 (-1 表示不需要保存)
     private HashMap<Value, Register> var2reg; // 变量 -> 寄存器映射 (由寄存器分配器填充)
     private HashMap<Value, Integer> var2Offset; // 变量 -> 栈偏移映射 (溢出到栈的变量)
+    private HashMap<AllocInst, Integer> allocOffsets; // 局部数组/变量 -> 其存储空间的栈偏移
 
     private boolean isInMain = false; // 标记当前是否在 main 函数中 (影响 ret 指令的行为)
+    private LinkedHashMap<Register, Integer> calleeSavedSlots; // 本函数用到的被调用者保存寄存器 -> 保存位置
     private Function currentFunction; // 当前正在处理的函数
     private List<Object> mipsInstructions = new ArrayList<>();
 
@@ -220,7 +229,7 @@ public class MipsBuilder {
     private void buildFunction(Function function) {
         this.currentFunction = function;
         this.var2Offset = new HashMap<>();
-        this.curStackOffset = 0;
+        this.allocOffsets = new HashMap<>();
 
         // 7.1 初始化寄存器分配表
         this.var2reg = optimizeOn ? new HashMap<>(function.getVar2reg()) : new HashMap<>();
@@ -228,52 +237,123 @@ public class MipsBuilder {
         // 7.2 生成函数标签
         emit(new Label(parseLabel(function.getName())));
 
-        // 7.3 处理函数参数 (保持不变)
-        ArrayList<FuncParam> funcParams = function.getParams();
-        int totalStackArgs = Math.max(0, funcParams.size() - 4);
+        // 7.3 扫描调用点：是否为叶子函数、最多的栈参数个数、最多需要保存的调用者保存寄存器个数
+        boolean isLeaf = true;
+        int maxOutArgs = 0;
+        int maxCallSaved = 0;
+        for (BasicBlock block : function.getBasicBlocks()) {
+            for (Instruction inst : block.getInstructions()) {
+                // 兄弟尾调用用 j 跳转，不需要 $ra、保存区和栈参数区
+                if (inst instanceof CallInst callInst && !callInst.getFunction().isDeclaration()
+                        && !isSiblingTailCall(callInst)) {
+                    isLeaf = false;
+                    maxOutArgs = Math.max(maxOutArgs, callInst.getNumOperands() - 1 - 4);
+                    maxCallSaved = Math.max(maxCallSaved, getCallerSavedRegs(callInst).size());
+                }
+            }
+        }
 
-        for (int i = 0; i < funcParams.size(); i++) {
+        // 7.4 栈帧布局 (偏移由低到高)
+        int offset = 4 * maxOutArgs;
+        this.callSaveOffset = offset;
+        offset += 4 * maxCallSaved;
+
+        // 7.4.1 本函数用到的被调用者保存寄存器 ($s0-$s7, $fp)
+        // main 直接通过 syscall 退出，不需要保存
+        this.calleeSavedSlots = new LinkedHashMap<>();
+        if (!isInMain) {
+            TreeSet<Register> usedCalleeSaved = new TreeSet<>();
+            for (Register reg : var2reg.values()) {
+                if (RegAlloc.isCalleeSaved(reg)) {
+                    usedCalleeSaved.add(reg);
+                }
+            }
+            for (Register reg : usedCalleeSaved) {
+                calleeSavedSlots.put(reg, offset);
+                offset += 4;
+            }
+        }
+
+        // 7.4.2 只有非叶子函数需要保存 $ra
+        this.raOffset = -1;
+        if (!isLeaf && !isInMain) {
+            raOffset = offset;
+            offset += 4;
+        }
+
+        // 7.4.3 没有分配到寄存器的寄存器参数 ($a0-$a3) 需要一个栈槽
+        ArrayList<FuncParam> funcParams = function.getParams();
+        for (int i = 0; i < Math.min(4, funcParams.size()); i++) {
             FuncParam arg = funcParams.get(i);
-            if (i < 4) {
-                curStackOffset -= 4;
-                var2Offset.put(arg, curStackOffset);
-                Register argReg = Register.getByOffset(Register.A0, i);
-                emit(new MemAsm(AsmOp.SW, argReg, Register.SP, curStackOffset));
-            } else {
-                int stackArgIndex = i - 4;
-                int stackArgOffset = (totalStackArgs - 1 - stackArgIndex) * 4;
-                var2Offset.put(arg, stackArgOffset);
+            if (!var2reg.containsKey(arg) && !arg.getUseList().isEmpty()) {
+                var2Offset.put(arg, offset);
+                offset += 4;
             }
         }
 
-        // 7.4 【关键修改】遍历所有指令，为局部变量分配栈空间
+        // 7.4.4 溢出变量的栈槽：活跃范围不相交的变量共用同一个槽
+        Map<Value, Integer> slots = StackSlotAlloc.run(function, var2reg);
+        int slotCount = 0;
+        for (Map.Entry<Value, Integer> entry : slots.entrySet()) {
+            var2Offset.put(entry.getKey(), offset + 4 * entry.getValue());
+            slotCount = Math.max(slotCount, entry.getValue() + 1);
+        }
+        offset += 4 * slotCount;
+
+        // 7.4.5 局部数组/变量的存储空间单独排布，之后其地址可以随时重算
         for (BasicBlock block : function.getBasicBlocks()) {
             for (Instruction inst : block.getInstructions()) {
-
-                // 【关键位置】：必须在 VoidType 检查之前处理 MoveInst
-                if (inst instanceof MoveInst) {
-                    Value dest = ((MoveInst) inst).getToValue();
-                    // 如果目标是临时变量或Phi变量，且没分配过，则分配栈空间
-                    if (!var2reg.containsKey(dest) && !var2Offset.containsKey(dest)) {
-                        curStackOffset -= 4;
-                        var2Offset.put(dest, curStackOffset);
-                    }
+                if (inst instanceof AllocInst allocInst) {
+                    allocOffsets.put(allocInst, offset);
+                    offset += getAllocSize(allocInst);
                 }
+            }
+        }
+        this.frameSize = offset;
 
-                // 跳过无返回值的指令 (注意：MoveInst 也是 VoidType，所以必须在上面处理完)
-                if (inst.getType() instanceof VoidType) continue;
+        // 7.4.6 叶子函数不移动 $sp，整个栈帧下移到 $sp 之下
+        this.frameOnStack = !isLeaf && frameSize > 0;
+        if (isLeaf) {
+            var2Offset.replaceAll((v, off) -> off - frameSize);
+            allocOffsets.replaceAll((v, off) -> off - frameSize);
+            calleeSavedSlots.replaceAll((r, off) -> off - frameSize);
+        }
+        // 调用者的栈参数区位于本函数栈帧之上
+        int stackArgBase = frameOnStack ? frameSize : 0;
 
-                // 如果已经分配了寄存器或栈空间，跳过
-                if (var2reg.containsKey(inst)) continue;
-                if (var2Offset.containsKey(inst)) continue;
+        // 7.5 序言
+        if (frameOnStack) {
+            emit(new CalcAsm(Register.SP, AsmOp.ADDIU, Register.SP, -frameSize));
+        }
+        for (Map.Entry<Register, Integer> entry : calleeSavedSlots.entrySet()) {
+            emit(new MemAsm(AsmOp.SW, entry.getKey(), Register.SP, entry.getValue()));
+        }
+        if (raOffset >= 0) {
+            emit(new MemAsm(AsmOp.SW, Register.RA, Register.SP, raOffset));
+        }
 
-                // 为普通指令分配栈空间
-                curStackOffset -= 4;
-                var2Offset.put(inst, curStackOffset);
+        // 7.5.1 把参数取到分配的位置
+        for (int i = 0; i < funcParams.size(); i++) {
+            FuncParam arg = funcParams.get(i);
+            Register reg = var2reg.get(arg);
+            if (i < 4) {
+                Register argReg = Register.getByOffset(Register.A0, i);
+                if (reg != null) {
+                    emit(new MoveAsm(reg, argReg));
+                } else if (var2Offset.containsKey(arg)) {
+                    emit(new MemAsm(AsmOp.SW, argReg, Register.SP, var2Offset.get(arg)));
+                }
+            } else {
+                int stackArgOffset = stackArgBase + 4 * (i - 4);
+                if (reg != null) {
+                    emit(new MemAsm(AsmOp.LW, reg, Register.SP, stackArgOffset));
+                } else {
+                    var2Offset.put(arg, stackArgOffset);
+                }
             }
         }
 
-        // 7.5 生成指令
+        // 7.6 生成指令
         for (BasicBlock block : function.getBasicBlocks()) {
             buildBasicBlock(block);
         }
@@ -304,6 +384,11 @@ public class MipsBuilder {
 
     // 9. 指令分发 helper
     private void buildInstruction(Instruction instruction) {
+        // 溢出的可重算值不在定义处生成代码，而是在每个使用点重新计算
+        if (!var2reg.containsKey(instruction) && RegAlloc.isRematerializable(instruction)) {
+            return;
+        }
+
         Consumer<Instruction> handler = instructionHandlers.get(instruction.getClass());
         if (handler != null) {
             handler.accept(instruction);
@@ -318,7 +403,7 @@ public class MipsBuilder {
     // 我们会在后续步骤一一实现它们。
     // ----------------------------------------------------
 
-    private void buildAllocInst(AllocInst allocInst) {
+    private int getAllocSize(AllocInst allocInst) {
         Type targetType = ((PointerType) allocInst.getType()).getPointeeType();
 
         int sizeBytes = 4; // 默认分配 4 字节
@@ -327,20 +412,74 @@ public class MipsBuilder {
             // 这样能保证栈始终 4 字节对齐，且配合 GEP 的 *4 逻辑
             sizeBytes = 4 * ((ArrayType) targetType).getNumElements();
         }
+        return sizeBytes;
+    }
 
-        // 在栈上分配空间
-        curStackOffset -= sizeBytes;
-
-        // 获取 AllocInst 对应的寄存器（或临时寄存器 K0）
-        Register destReg = var2reg.getOrDefault(allocInst, Register.K0);
+    private void buildAllocInst(AllocInst allocInst) {
+        // 存储空间已在 buildFunction 中分配；地址只在分配到寄存器时才需要提前算好
+        // (未分配寄存器的 AllocInst 是可重算的，在每个使用点用 addiu 重新计算)
+        if (var2reg.containsKey(allocInst)) {
+            // 计算地址: destReg = $sp + offset
+            emit(new CalcAsm(var2reg.get(allocInst), AsmOp.ADDIU, Register.SP, allocOffsets.get(allocInst)));
+        }
+    }
 
-        // 计算地址: destReg = $sp + curStackOffset
-        emit(new CalcAsm(destReg, AsmOp.ADDIU, Register.SP, curStackOffset));
+    /**
+     * 将未分配寄存器的变量取到 reg 中：可重算的值直接重新计算，否则从栈槽加载
+     */
+    private void loadSpilled(Value value, Register reg) {
+        if (RegAlloc.isRematerializable(value)) {
+            emitRemat(value, reg);
+            return;
+        }
+        Integer offset = var2Offset.get(value);
+        if (offset == null) {
+            // 【NPE 保护】抛出详细异常
+            throw new RuntimeException("GenCode Error: Value not found in stack/reg. Val=" + value.getName());
+        }
+        emit(new MemAsm(AsmOp.LW, reg, Register.SP, offset));
+    }
 
-        // 如果 AllocInst 溢出到栈上，将计算出的地址存回栈槽
-        if (!var2reg.containsKey(allocInst)) {
-            int allocInstOffset = var2Offset.get(allocInst);
-            emit(new MemAsm(AsmOp.SW, Register.K0, Register.SP, allocInstOffset));
+    /**
+     * 重新计算一个可重算的值 (见 RegAlloc.isRematerializable)
+     */
+    private void emitRemat(Value value, Register reg) {
+        if (value instanceof AllocInst allocInst) {
+            // addiu reg, $sp, offset
+            emit(new CalcAsm(reg, AsmOp.ADDIU, Register.SP, allocOffsets.get(allocInst)));
+        } else if (value instanceof GepInst gepInst) {
+            int byteOffset = 0;
+            for (int i = 1; i < gepInst.getNumOperands(); i++) {
+                byteOffset += ((ConstInt) gepInst.getOperand(i)).getValue() * 4;
+            }
+            Value base = gepInst.getPointer();
+            if (base instanceof AllocInst allocInst) {
+                // addiu reg, $sp, offset + index * 4
+                emit(new CalcAsm(reg, AsmOp.ADDIU, Register.SP, allocOffsets.get(allocInst) + byteOffset));
+            } else {
+                // la reg, label+offset
+                String label = parseLabel(base.getName());
+                emit(new LaAsm(reg, byteOffset == 0 ? label : label + "+" + byteOffset));
+            }
+        } else {
+            // 两个常量操作数的运算：li reg, result
+            BinaryInst binaryInst = (BinaryInst) value;
+            int v1 = ((ConstInt) binaryInst.getOp1()).getValue();
+            int v2 = ((ConstInt) binaryInst.getOp2()).getValue();
+            int result = switch (binaryInst.getOpCode()) {
+                case ADD -> v1 + v2;
+                case SUB -> v1 - v2;
+                case MUL -> v1 * v2;
+                case SDIV -> v1 / v2;
+                case SREM -> v1 % v2;
+                case EQ -> v1 == v2 ? 1 : 0;
+                case NE -> v1 != v2 ? 1 : 0;
+                case SGT -> v1 > v2 ? 1 : 0;
+                case SGE -> v1 >= v2 ? 1 : 0;
+                case SLT -> v1 < v2 ? 1 : 0;
+                case SLE -> v1 <= v2 ? 1 : 0;
+            };
+            emit(new LiAsm(reg, result));
         }
     }
 
@@ -365,8 +504,7 @@ public class MipsBuilder {
             // Case C: 指针变量在栈上 (溢出)
             // 例子：指针 %ptr 存在栈的 -4($sp) 处
             // MIPS: lw $k0, -4($sp) -> 此时 $k0 拿到了指针的值(即目标地址)
-            int offset = var2Offset.get(pointer);
-            emit(new MemAsm(AsmOp.LW, addrReg, Register.SP, offset));
+            loadSpilled(pointer, addrReg);
         }
 
         // 3. 执行加载操作: result = *addrReg
@@ -410,7 +548,7 @@ public class MipsBuilder {
         } else {
             // Case: 指针在栈 -4($sp)
             // MIPS: lw $k0, -4($sp)
-            emit(new MemAsm(AsmOp.LW, addrReg, Register.SP, var2Offset.get(pointer)));
+            loadSpilled(pointer, addrReg);
         }
 
         // 2. 准备数据寄存器 ($k1) - 把要存的值拿到 $k1
@@ -448,12 +586,7 @@ public class MipsBuilder {
         }
         else {
             // Case C: 值在栈上
-            Integer offset = var2Offset.get(value);
-            if (offset == null) {
-                // 【NPE 保护】抛出详细异常
-                throw new RuntimeException("GenCode Error: Store value not found in stack. Inst=" + storeInst + ", Val=" + value.getName());
-            }
-            emit(new MemAsm(AsmOp.LW, dataReg, Register.SP, offset));
+            loadSpilled(value, dataReg);
         }
 
         // ==========================================
@@ -487,7 +620,7 @@ public class MipsBuilder {
         } else {
             Integer offset = var2Offset.get(src);
 
-            if (offset == null) {
+            if (offset == null && !RegAlloc.isRematerializable(src)) {
                 // 【终极修复】Panic Mode
                 // 发现了一个没有分配栈空间的变量 (可能是 Undef，或者是丢失的临时变量)
                 // 为了防止崩溃，我们生成 li $reg, 0
@@ -497,7 +630,7 @@ public class MipsBuilder {
                 emit(new LiAsm(dstReg, 0));
             } else {
                 // 正常情况
-                emit(new MemAsm(AsmOp.LW, dstReg, Register.SP, offset));
+                loadSpilled(src, dstReg);
             }
         }
 
@@ -592,7 +725,7 @@ public class MipsBuilder {
             }
             else {
                 varReg = Register.K0;
-                emit(new MemAsm(AsmOp.LW,varReg,Register.SP,var2Offset.get(value))); //先存k0里
+                loadSpilled(value, varReg); //先存k0里
             }
         } else {
             // 情况 B: 变量 op 常量 (例如: a - 100)
@@ -605,7 +738,7 @@ public class MipsBuilder {
                 varReg = var2reg.get(var);
             } else {
                 varReg = Register.K0;
-                emit(new MemAsm(AsmOp.LW, varReg, Register.SP, var2Offset.get(var)));
+                loadSpilled(var, varReg);
             }
         }
 
@@ -709,7 +842,7 @@ public class MipsBuilder {
             reg1 = var2reg.get(op1);
         } else {
             reg1 = Register.K0;
-            emit(new MemAsm(AsmOp.LW, reg1, Register.SP, var2Offset.get(op1)));
+            loadSpilled(op1, reg1);
         }
 
         Register reg2;
@@ -718,7 +851,7 @@ public class MipsBuilder {
         } else {
             // 注意：如果 reg1 用了 K0，这里必须用 K1，否则会覆盖 reg1
             reg2 = Register.K1;
-            emit(new MemAsm(AsmOp.LW, reg2, Register.SP, var2Offset.get(op2)));
+            loadSpilled(op2, reg2);
         }
 
         // 2. 生成指令
@@ -912,10 +1045,8 @@ public class MipsBuilder {
                 reg1 = var2reg.get(op1);
             } else {
                 // 栈加载保护
-                Integer offset = var2Offset.get(op1);
-                if (offset == null) throw new RuntimeException("CondBr Op1 not found in stack: " + op1.getName());
                 reg1 = Register.K0;
-                emit(new MemAsm(AsmOp.LW, reg1, Register.SP, offset));
+                loadSpilled(op1, reg1);
             }
 
             // --- 加载 op2 (右操作数) ---
@@ -931,10 +1062,8 @@ public class MipsBuilder {
                     reg2 = var2reg.get(op2);
                 } else {
                     // 【关键】：这里必须用 K1，因为 K0 可能正在存放 op1
-                    Integer offset = var2Offset.get(op2);
-                    if (offset == null) throw new RuntimeException("CondBr Op2 not found in stack: " + op2.getName());
                     reg2 = Register.K1;
-                    emit(new MemAsm(AsmOp.LW, reg2, Register.SP, offset));
+                    loadSpilled(op2, reg2);
                 }
             }
 
@@ -967,14 +1096,9 @@ public class MipsBuilder {
             if (var2reg.containsKey(cond)) {
                 condReg = var2reg.get(cond);
             } else {
-                // 【修复 2】：增加空指针检查，防止再次 NPE
-                Integer offset = var2Offset.get(cond);
-                if (offset == null) {
-                    throw new RuntimeException("GenCode Error: Boolean condition value not found in stack/reg. Val=" + cond.getName());
-                }
                 // 使用 K0 加载
                 condReg = Register.K0;
-                emit(new MemAsm(AsmOp.LW, condReg, Register.SP, offset));
+                loadSpilled(cond, condReg);
             }
 
             // 生成: bne $cond, $zero, trueLabel
@@ -1014,7 +1138,7 @@ public class MipsBuilder {
         } else if (var2reg.containsKey(op1)) {
             reg1 = var2reg.get(op1);
         } else {
-            emit(new MemAsm(AsmOp.LW, reg1, Register.SP, var2Offset.get(op1)));
+            loadSpilled(op1, reg1);
         }
 
         Register reg2 = Register.K1;
@@ -1023,7 +1147,7 @@ public class MipsBuilder {
         } else if (var2reg.containsKey(op2)) {
             reg2 = var2reg.get(op2);
         } else {
-            emit(new MemAsm(AsmOp.LW, reg2, Register.SP, var2Offset.get(op2)));
+            loadSpilled(op2, reg2);
         }
 
         // 2.2 确定目标寄存器
@@ -1053,6 +1177,13 @@ public class MipsBuilder {
     }
 
     private void buildRetInst(RetInst retInst) {
+        // 0. 紧跟在兄弟尾调用之后的 ret 已经由 j 代替
+        List<Instruction> insts = retInst.getParent().getInstructions();
+        int idx = insts.indexOf(retInst);
+        if (idx > 0 && insts.get(idx - 1) instanceof CallInst callInst && isSiblingTailCall(callInst)) {
+            return;
+        }
+
         // 1. 特殊处理 Main 函数
         // 在 MIPS 模拟器中，main 函数返回通常意味着程序终止
         if (isInMain) {
@@ -1080,15 +1211,49 @@ public class MipsBuilder {
             } else {
                 // Case C: 返回值在栈上
                 // MIPS: lw $v0, offset($sp)
-                emit(new MemAsm(AsmOp.LW,Register.V0,Register.SP,var2Offset.get(retVal)));
+                loadSpilled(retVal, Register.V0);
             }
         }
 
-        // 3. 跳转回调用者
+        // 3. 恢复被调用者保存寄存器与 $ra，释放栈帧
+        emitEpilogue();
+
+        // 4. 跳转回调用者
         // MIPS: jr $ra
         emit(new JumpAsm(AsmOp.JR,Register.RA));
     }
 
+    /**
+     * 尾声：恢复被调用者保存寄存器与 $ra，释放栈帧 (不含最后的跳转)
+     */
+    private void emitEpilogue() {
+        for (Map.Entry<Register, Integer> entry : calleeSavedSlots.entrySet()) {
+            emit(new MemAsm(AsmOp.LW, entry.getKey(), Register.SP, entry.getValue()));
+        }
+        if (raOffset >= 0) {
+            emit(new MemAsm(AsmOp.LW, Register.RA, Register.SP, raOffset));
+        }
+        if (frameOnStack) {
+            emit(new CalcAsm(Register.SP, AsmOp.ADDIU, Register.SP, frameSize));
+        }
+    }
+
+    /**
+     * 兄弟尾调用：调用之后紧跟返回其结果 (或返回 void) 的 ret，且参数都能放进 $a0-$a3。
+     * 此时在释放本函数栈帧后直接 j 到目标函数，由目标函数返回到本函数的调用者。
+     */
+    private boolean isSiblingTailCall(CallInst callInst) {
+        if (isInMain) return false;
+        if (callInst.getFunction().isDeclaration() || callInst.getNumArgs() > 4) return false;
+        // 跳转前本函数的栈帧已释放，被调用者的序言会覆盖其中的局部数组
+        if (!callInst.hasOnlyNonLocalPointerArgs()) return false;
+
+        List<Instruction> insts = callInst.getParent().getInstructions();
+        int idx = insts.indexOf(callInst);
+        if (idx + 1 >= insts.size() || !(insts.get(idx + 1) instanceof RetInst retInst)) return false;
+        return retInst.getNumOperands() == 0 || retInst.getReturnValue() == callInst;
+    }
+
     private void buildCallInst(CallInst callInst) {
         Function targetFunc = (Function) callInst.getOperand(0);
         String funcName = targetFunc.getName();
@@ -1107,7 +1272,7 @@ public class MipsBuilder {
             } else if (var2reg.containsKey(val)) {
                 emit(new MoveAsm(Register.A0, var2reg.get(val)));
             } else {
-                emit(new MemAsm(AsmOp.LW, Register.A0, Register.SP, var2Offset.get(val)));
+                loadSpilled(val, Register.A0);
             }
             emit(new LiAsm(Register.V0, 1));
             emit(new SyscallAsm());
@@ -1125,51 +1290,56 @@ public class MipsBuilder {
         }
 
         // =========================================================
-        // 1. 【关键修改】确定需要保存的寄存器 (Caller-Saved Optimization)
+        // 0.1 兄弟尾调用：准备参数、释放栈帧后直接跳转
         // =========================================================
-        Set<Register> activeRegs = callInst.getActiveReg(); // 从指令中获取分析结果
-        ArrayList<Register> savedRegs = new ArrayList<>();
+        if (isSiblingTailCall(callInst)) {
+            loadCallArgs(callInst);
+            emitEpilogue();
+            emit(new JumpAsm(AsmOp.J, parseLabel(targetFunc.getName())));
+            return;
+        }
 
-        if (activeRegs != null && !activeRegs.isEmpty()) {
-            // 【优化路径】：只保存 RegAlloc 认为活跃的寄存器
-            for (Register reg : activeRegs) {
-                if (isValidGeneralReg(reg)) {
-                    savedRegs.add(reg);
-                }
-            }
-        } else {
-            // 【兜底路径】：如果 activeRegs 为空 (可能是没开优化，或者分析失败)
-            // 回退到保守策略：保存所有 var2reg 中已分配的寄存器
-            for (Register reg : var2reg.values()) {
-                if (isValidGeneralReg(reg)) {
-                    if (!savedRegs.contains(reg)) {
-                        savedRegs.add(reg);
-                    }
-                }
-            }
+        // =========================================================
+        // 1. 保存调用后仍然活跃的调用者保存寄存器 (保存区在栈帧中预留)
+        // =========================================================
+        List<Register> savedRegs = getCallerSavedRegs(callInst);
+        for (int i = 0; i < savedRegs.size(); i++) {
+            emit(new MemAsm(AsmOp.SW, savedRegs.get(i), Register.SP, callSaveOffset + 4 * i));
         }
 
-        // 必须排序！保证压栈和出栈顺序的一致性 (避免随机性 Bug)
-        Collections.sort(savedRegs);
+        // =========================================================
+        // 2. 准备参数
+        // =========================================================
+        loadCallArgs(callInst);
 
         // =========================================================
-        // 2. 执行压栈 (Save Context)
+        // 3. 跳转 (记得处理符号)
         // =========================================================
-        for (Register reg : savedRegs) {
-            curStackOffset -= 4;
-            emit(new MemAsm(AsmOp.SW, reg, Register.SP, curStackOffset));
-        }
+        emit(new JumpAsm(AsmOp.JAL, parseLabel(targetFunc.getName())));
 
         // =========================================================
-        // 3. 保存 $ra
+        // 4. 恢复 Caller-Saved 寄存器
         // =========================================================
-        curStackOffset -= 4;
-        int raOffset = curStackOffset;
-        emit(new MemAsm(AsmOp.SW, Register.RA, Register.SP, raOffset));
+        for (int i = 0; i < savedRegs.size(); i++) {
+            emit(new MemAsm(AsmOp.LW, savedRegs.get(i), Register.SP, callSaveOffset + 4 * i));
+        }
 
         // =========================================================
-        // 4. 准备参数 (保持原有逻辑)
+        // 5. 处理返回值 (保持原有逻辑)
         // =========================================================
+        if (!(callInst.getType() instanceof VoidType)) {
+            Register targetReg = var2reg.getOrDefault(callInst, Register.K0);
+            emit(new MoveAsm(targetReg, Register.V0));
+            if (targetReg == Register.K0 && var2Offset.containsKey(callInst)) {
+                emit(new MemAsm(AsmOp.SW, targetReg, Register.SP, var2Offset.get(callInst)));
+            }
+        }
+    }
+
+    /**
+     * 准备参数：前 4 个放入 $a0-$a3，其余放入栈帧底部的栈参数区
+     */
+    private void loadCallArgs(CallInst callInst) {
         int argCount = callInst.getNumOperands() - 1;
 
         for (int i = 0; i < argCount; i++) {
@@ -1183,11 +1353,10 @@ public class MipsBuilder {
                 } else if (var2reg.containsKey(arg)) {
                     emit(new MoveAsm(argReg, var2reg.get(arg)));
                 } else {
-                    emit(new MemAsm(AsmOp.LW, argReg, Register.SP, var2Offset.get(arg)));
+                    loadSpilled(arg, argReg);
                 }
             } else {
-                // 栈参数：存放在 RA 下方
-                int paramOffset = raOffset - 4 * (i - 4 + 1);
+                // 栈参数：被调函数在 (其栈帧大小 + 4 * (i - 4))($sp) 处读取
                 Register temp = Register.K0;
 
                 if (arg instanceof ConstInt) {
@@ -1195,59 +1364,42 @@ public class MipsBuilder {
                 } else if (var2reg.containsKey(arg)) {
                     temp = var2reg.get(arg);
                 } else {
-                    emit(new MemAsm(AsmOp.LW, temp, Register.SP, var2Offset.get(arg)));
+                    loadSpilled(arg, temp);
                 }
-                emit(new MemAsm(AsmOp.SW, temp, Register.SP, paramOffset));
+                emit(new MemAsm(AsmOp.SW, temp, Register.SP, 4 * (i - 4)));
             }
         }
+    }
 
-        // =========================================================
-        // 5. 调整栈指针 ($sp) 并跳转
-        // =========================================================
-        int extraArgs = Math.max(0, argCount - 4);
-        int stackSpaceForArgs = extraArgs * 4;
-
-        // SP 下降：覆盖当前栈帧 + 保存的寄存器 + RA + 栈参数
-        emit(new CalcAsm(Register.SP, AsmOp.ADDIU, Register.SP, curStackOffset - stackSpaceForArgs));
-
-        // 跳转 (记得处理符号)
-        emit(new JumpAsm(AsmOp.JAL, parseLabel(targetFunc.getName())));
-
-        // =========================================================
-        // 6. 恢复 SP
-        // =========================================================
-        emit(new CalcAsm(Register.SP, AsmOp.ADDIU, Register.SP, -(curStackOffset - stackSpaceForArgs)));
-
-        // =========================================================
-        // 7. 恢复 $ra
-        // =========================================================
-        emit(new MemAsm(AsmOp.LW, Register.RA, Register.SP, raOffset));
-        curStackOffset += 4; // 逻辑弹栈 RA
-
-        // =========================================================
-        // 8. 恢复 Caller-Saved 寄存器 (倒序)
-        // =========================================================
-        // 这里的 tempOffset 逻辑是你原有的，它是对的。
-        // 压栈顺序：RegA(High) -> RegB(Low) -> RA
-        // 此时 curStackOffset 在 RA 上方，也就是 RegB 的位置
-        // 你的逻辑是：从 RA 的位置 (raOffset) 往回找
-        int tempOffset = raOffset;
-        for (int i = savedRegs.size() - 1; i >= 0; i--) {
-            tempOffset += 4; // 往回找上一个存的位置 (即 RegB, 然后 RegA)
-            emit(new MemAsm(AsmOp.LW, savedRegs.get(i), Register.SP, tempOffset));
-        }
-        curStackOffset += (savedRegs.size() * 4); // 逻辑弹栈 Regs
+    /**
+     * 调用点需要保存的寄存器 (已排序，保证保存和恢复使用相同的位置)
+     */
+    private List<Register> getCallerSavedRegs(CallInst callInst) {
+        Set<Register> activeRegs = callInst.getActiveReg(); // 从指令中获取分析结果
+        ArrayList<Register> savedRegs = new ArrayList<>();
 
-        // =========================================================
-        // 9. 处理返回值 (保持原有逻辑)
-        // =========================================================
-        if (!(callInst.getType() instanceof VoidType)) {
-            Register targetReg = var2reg.getOrDefault(callInst, Register.K0);
-            emit(new MoveAsm(targetReg, Register.V0));
-            if (targetReg == Register.K0 && var2Offset.containsKey(callInst)) {
-                emit(new MemAsm(AsmOp.SW, targetReg, Register.SP, var2Offset.get(callInst)));
+        if (activeRegs != null) {
+            // 【优化路径】：只保存 RegAlloc 认为活跃的寄存器 (为空说明调用点没有活跃的调用者保存寄存器)
+            for (Register reg : activeRegs) {
+                if (isValidGeneralReg(reg)) {
+                    savedRegs.add(reg);
+                }
+            }
+        } else {
+            // 【兜底路径】：如果 activeRegs 不存在 (分析失败)
+            // 回退到保守策略：保存所有 var2reg 中已分配的调用者保存寄存器
+            for (Register reg : var2reg.values()) {
+                if (isValidGeneralReg(reg) && !RegAlloc.isCalleeSaved(reg)) {
+                    if (!savedRegs.contains(reg)) {
+                        savedRegs.add(reg);
+                    }
+                }
             }
         }
+
+        // 必须排序！保证压栈和出栈顺序的一致性 (避免随机性 Bug)
+        Collections.sort(savedRegs);
+        return savedRegs;
     }
 
     /**
@@ -1282,9 +1434,9 @@ public class MipsBuilder {
         Register targetReg = var2reg.getOrDefault(gepInst, Register.K0);
         Value basePointer = gepInst.getPointer();
 
-        // 1. 先计算所有索引的总偏移量，存入 $t8
+        // 1. 先计算所有索引的总偏移量，存入 $k1 ($t8 已交给寄存器分配器)
         // 这样可以确保在覆盖 targetReg 之前，所有索引值都已被读取
-        Register totalOffsetReg = Register.T8;
+        Register totalOffsetReg = Register.K1;
         emit(new LiAsm(totalOffsetReg, 0)); // init offset = 0
 
         for (int i = 1; i < gepInst.getNumOperands(); i++) {
@@ -1300,9 +1452,7 @@ public class MipsBuilder {
             } else if (var2reg.containsKey(index)) {
                 emit(new MoveAsm(currIdxReg, var2reg.get(index)));
             } else {
-                Integer offset = var2Offset.get(index);
-                if (offset == null) throw new RuntimeException("GEP index missing");
-                emit(new MemAsm(AsmOp.LW, currIdxReg, Register.SP, offset));
+                loadSpilled(index, currIdxReg);
             }
 
             // currIdx * 4
@@ -1324,9 +1474,7 @@ public class MipsBuilder {
             emit(new MoveAsm(targetReg, var2reg.get(basePointer)));
         } else {
             // 栈：lw targetReg, offset($sp)
-            Integer offset = var2Offset.get(basePointer);
-            if (offset == null) throw new RuntimeException("GEP base missing");
-            emit(new MemAsm(AsmOp.LW, targetReg, Register.SP, offset));
+            loadSpilled(basePointer, targetReg);
         }
 
         // 3. 最终相加：Result = Base + TotalOffset
@@ -1379,16 +1527,11 @@ public class MipsBuilder {
             if (var2reg.containsKey(argValue)) {
                 emit(new MoveAsm(Register.A0, var2reg.get(argValue)));
             } else {
-                Integer offset = var2Offset.get(argValue);
-                if (offset == null) {
+                if (argValue instanceof GlobalVar) {
                     // 容错处理：如果是指针是指向全局变量的
-                    if(argValue instanceof GlobalVar) {
-                        emit(new LaAsm(Register.A0, parseLabel(argValue.getName())));
-                    } else {
-                        throw new RuntimeException("Putstr Error: Arg not found. " + argValue);
-                    }
+                    emit(new LaAsm(Register.A0, parseLabel(argValue.getName())));
                 } else {
-                    emit(new MemAsm(AsmOp.LW, Register.A0, Register.SP, offset));
+                    loadSpilled(argValue, Register.A0);
                 }
             }
         }
@@ -1407,7 +1550,7 @@ public class MipsBuilder {
         } else if (var2reg.containsKey(val)) {
             emit(new MoveAsm(Register.A0, var2reg.get(val)));
         } else {
-            emit(new MemAsm(AsmOp.LW, Register.A0, Register.SP, var2Offset.get(val)));
+            loadSpilled(val, Register.A0);
         }
 
         // 2. 系统调用 1 (print_int)
@@ -1446,11 +1589,7 @@ public class MipsBuilder {
             } else {
                 // 地址溢出在栈上 -> lw $a0, offset($sp)
                 // 注意：这里必须加非空检查，防止像之前 GEP 那样报空指针
-                Integer offset = var2Offset.get(val);
-                if (offset == null) {
-                    throw new RuntimeException("Putstr error: String pointer not found. Val=" + val.getName());
-                }
-                emit(new MemAsm(AsmOp.LW, Register.A0, Register.SP, offset));
+                loadSpilled(val, Register.A0);
             }
         }
 
@@ -1467,7 +1606,7 @@ public class MipsBuilder {
         if (var2reg.containsKey(src)) {
             srcReg = var2reg.get(src);
         } else {
-            emit(new MemAsm(AsmOp.LW, srcReg, Register.SP, var2Offset.get(src)));
+            loadSpilled(src, srcReg);
         }
 
         // 2. 准备目标寄存器
@@ -1506,7 +1645,7 @@ public class MipsBuilder {
         } else if (var2reg.containsKey(src)) {
             emit(new MoveAsm(targetReg, var2reg.get(src)));
         } else {
-            emit(new MemAsm(AsmOp.LW, targetReg, Register.SP, var2Offset.get(src)));
+            loadSpilled(src, targetReg);
         }
 
         // 2. 溢出处理
@@ -2,11 +2,12 @@ package backend.text;
 
 import backend.enums.Register;
 
-public class NegAsm {
+public class NegAsm extends MipsInstruction {
     private final Register dst;
     private final Register src;
 
     public NegAsm(Register dst,Register src) {
+        super(); // 自动加入指令流
         this.dst = dst;
         this.src = src;
     }
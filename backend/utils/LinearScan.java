@@ -0,0 +1,265 @@
+package backend.utils;
+
+import backend.enums.Register;
+import middle.component.inst.CallInst;
+import middle.component.inst.Instruction;
+import middle.component.inst.PhiInst;
+import middle.component.model.BasicBlock;
+import middle.component.model.Function;
+import middle.component.model.Value;
+
+import java.util.*;
+
+/**
+ * 线性扫描寄存器分配器
+ * 图着色的建图代价随干涉边数超线性增长，超大函数改用本分配器。
+ * 基于块线性化顺序构造带空洞 (lifetime hole) 的活跃区间，按起点扫描分配。
+ * 后端每个变量只有一个位置 (寄存器或栈槽)，因此冲突时整段溢出，而不做区间切分。
+ */
+public class LinearScan {
+    private final List<Register> callerSaved;
+    private final List<Register> calleeSaved;
+
+    private Map<Value, Interval> intervals;
+
+    public LinearScan(List<Register> callerSaved, List<Register> calleeSaved) {
+        this.callerSaved = callerSaved;
+        this.calleeSaved = calleeSaved;
+    }
+
+    /**
+     * 为函数分配寄存器，返回 变量 -> 寄存器 映射 (溢出的变量不在映射中)
+     * @param liveOut 由 RegAlloc 计算好的块出口活跃集合
+     */
+    public Map<Value, Register> allocate(Function func, Map<BasicBlock, Set<Value>> liveOut) {
+        buildIntervals(func, liveOut);
+
+        // 按起点排序的待处理区间
+        List<Interval> unhandled = new ArrayList<>(intervals.values());
+        unhandled.sort(Comparator.comparingInt(Interval::start));
+
+        List<Interval> active = new ArrayList<>();
+        List<Interval> inactive = new ArrayList<>();
+        HashMap<Value, Register> result = new HashMap<>();
+
+        for (Interval cur : unhandled) {
+            int pos = cur.start();
+
+            // 1. 维护 active / inactive：结束的移出，落入空洞的转为 inactive
+            Iterator<Interval> it = active.iterator();
+            while (it.hasNext()) {
+                Interval iv = it.next();
+                if (iv.end() <= pos) {
+                    it.remove();
+                } else if (!iv.covers(pos)) {
+                    it.remove();
+                    inactive.add(iv);
+                }
+            }
+            it = inactive.iterator();
+            while (it.hasNext()) {
+                Interval iv = it.next();
+                if (iv.end() <= pos) {
+                    it.remove();
+                } else if (iv.covers(pos)) {
+                    it.remove();
+                    active.add(iv);
+                }
+            }
+
+            // 2. 收集每个寄存器上与 cur 冲突的区间
+            Map<Register, List<Interval>> conflicts = new HashMap<>();
+            for (Interval iv : active) {
+                conflicts.computeIfAbsent(iv.reg, k -> new ArrayList<>()).add(iv);
+            }
+            for (Interval iv : inactive) {
+                if (iv.intersects(cur)) {
+                    conflicts.computeIfAbsent(iv.reg, k -> new ArrayList<>()).add(iv);
+                }
+            }
+
+            // 3. 优先寻找完全空闲的寄存器 (跨调用的区间先找被调用者保存寄存器)
+            Register chosen = null;
+            for (Register reg : preferenceOrder(cur)) {
+                if (!conflicts.containsKey(reg)) {
+                    chosen = reg;
+                    break;
+                }
+            }
+
+            // 4. 没有空闲寄存器：比较溢出代价，要么溢出 cur，要么溢出占用某寄存器的全部冲突区间
+            if (chosen == null) {
+                Register victimReg = null;
+                double victimCost = Double.MAX_VALUE;
+                for (Register reg : preferenceOrder(cur)) {
+                    double cost = 0;
+                    for (Interval iv : conflicts.get(reg)) {
+                        cost += iv.spillWeight();
+                    }
+                    if (cost < victimCost) {
+                        victimCost = cost;
+                        victimReg = reg;
+                    }
+                }
+                if (victimReg == null || victimCost >= cur.spillWeight()) {
+                    continue; // cur 溢出到栈
+                }
+                for (Interval iv : conflicts.get(victimReg)) {
+                    active.remove(iv);
+                    inactive.remove(iv);
+                    result.remove(iv.val);
+                    iv.reg = null;
+                }
+                chosen = victimReg;
+            }
+
+            cur.reg = chosen;
+            result.put(cur.val, chosen);
+            active.add(cur);
+        }
+        return result;
+    }
+
+    private List<Register> preferenceOrder(Interval cur) {
+        List<Register> order = new ArrayList<>();
+        if (cur.crossCall) {
+            order.addAll(calleeSaved);
+            order.addAll(callerSaved);
+        } else {
+            order.addAll(callerSaved);
+            order.addAll(calleeSaved);
+        }
+        return order;
+    }
+
+    // --- 活跃区间构造 ---
+
+    /**
+     * 按函数中块的顺序给指令编号，块内逆序扫描得到每个变量的区间段。
+     * 操作数区间在使用点结束 (不含)，定义区间从定义点开始，
+     * 因此一条指令的结果可以复用在该指令处死亡的操作数的寄存器 (与图着色的干涉定义一致)。
+     */
+    private void buildIntervals(Function func, Map<BasicBlock, Set<Value>> liveOut) {
+        intervals = new HashMap<>();
+        int pos = 0;
+        for (BasicBlock bb : func.getBasicBlocks()) {
+            List<Instruction> insts = bb.getInstructions();
+            int blockFrom = pos;
+            int blockTo = pos + 2 * insts.size() + 1;
+            pos = blockTo + 1;
+
+            // 变量 -> 当前打开区间段的终点
+            Map<Value, Integer> open = new HashMap<>();
+            for (Value v : liveOut.get(bb)) {
+                open.put(v, blockTo);
+            }
+
+            for (int i = insts.size() - 1; i >= 0; i--) {
+                Instruction inst = insts.get(i);
+                int instPos = blockFrom + 2 * i + 1;
+
+                if (!inst.getName().isEmpty()) {
+                    // 同一块的 Phi 在块入口被同时定义 (并行拷贝的目标)，统一从块起点开始
+                    int defPos = inst instanceof PhiInst ? blockFrom : instPos;
+                    Integer end = open.remove(inst);
+                    // 无用的定义也要在定义点占据一个寄存器
+                    getInterval(inst).addRange(defPos, end == null ? defPos + 1 : end);
+                    getInterval(inst).uses++;
+                }
+
+                if (inst instanceof CallInst call && !call.getFunction().isDeclaration()) {
+                    for (Value v : open.keySet()) {
+                        getInterval(v).crossCall = true;
+                    }
+                }
+
+                // Phi 的操作数在对应前驱出口活跃 (已包含在 liveOut 中)
+                if (inst instanceof PhiInst) continue;
+                for (int k = 0; k < inst.getNumOperands(); k++) {
+                    Value op = inst.getOperand(k);
+                    if (RegAlloc.canAllocate(op)) {
+                        open.putIfAbsent(op, instPos);
+                        getInterval(op).uses++;
+                    }
+                }
+            }
+
+            for (Map.Entry<Value, Integer> entry : open.entrySet()) {
+                getInterval(entry.getKey()).addRange(blockFrom, entry.getValue());
+            }
+        }
+    }
+
+    private Interval getInterval(Value v) {
+        return intervals.computeIfAbsent(v, Interval::new);
+    }
+
+    // --- 内部类 ---
+
+    private static class Interval {
+        final Value val;
+        // 有序、互不相交的半开区间段 [from, to)
+        final List<int[]> ranges = new ArrayList<>();
+        int uses = 0;
+        boolean crossCall = false;
+        Register reg = null;
+
+        Interval(Value val) {
+            this.val = val;
+        }
+
+        void addRange(int from, int to) {
+            // 区间段按块逆序生成，插入时保持有序并合并相邻段
+            int i = 0;
+            while (i < ranges.size() && ranges.get(i)[1] < from) i++;
+            int newFrom = from, newTo = to;
+            while (i < ranges.size() && ranges.get(i)[0] <= newTo) {
+                newFrom = Math.min(newFrom, ranges.get(i)[0]);
+                newTo = Math.max(newTo, ranges.get(i)[1]);
+                ranges.remove(i);
+            }
+            ranges.add(i, new int[]{newFrom, newTo});
+        }
+
+        int start() {
+            return ranges.get(0)[0];
+        }
+
+        int end() {
+            return ranges.get(ranges.size() - 1)[1];
+        }
+
+        boolean covers(int pos) {
+            for (int[] r : ranges) {
+                if (pos < r[0]) return false;
+                if (pos < r[1]) return true;
+            }
+            return false;
+        }
+
+        boolean intersects(Interval other) {
+            int i = 0, j = 0;
+            while (i < ranges.size() && j < other.ranges.size()) {
+                int[] a = ranges.get(i);
+                int[] b = other.ranges.get(j);
+                if (a[0] < b[1] && b[0] < a[1]) return true;
+                if (a[1] <= b[1]) i++;
+                else j++;
+            }
+            return false;
+        }
+
+        /**
+         * 溢出代价：使用次数越多、区间越短，越不应该溢出 (可重算的值视为零代价)
+         */
+        double spillWeight() {
+            // 可重算的值溢出几乎没有代价
+            if (RegAlloc.isRematerializable(val)) return 0;
+            int length = 0;
+            for (int[] r : ranges) {
+                length += r[1] - r[0];
+            }
+            return (double) uses / Math.max(1, length);
+        }
+    }
+}
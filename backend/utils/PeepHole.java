@@ -297,6 +297,7 @@ public class PeepHole {
             else if (obj instanceof CmpAsm cmp) targetReg = cmp.getDestReg();
             else if (obj instanceof MemAsm mem && mem.getOpCode() == AsmOp.LW) targetReg = mem.getTargetReg();
             else if (obj instanceof MoveAsm move) targetReg = move.getToReg();
+            else if (obj instanceof NegAsm neg) targetReg = neg.getDst();
             else if (obj instanceof MDRegAsm md && (md.getMdOp() == AsmOp.MFHI || md.getMdOp() == AsmOp.MFLO)) targetReg = md.getReg();
             else if (obj instanceof SyscallAsm) {
                 // Syscall 可能会修改 v0 (返回值)
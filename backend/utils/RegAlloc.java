@@ -1,12 +1,17 @@
 package backend.utils;
 
 import backend.enums.Register;
+import middle.component.inst.AllocInst;
+import middle.component.inst.BinaryInst;
+import middle.component.inst.BinaryOpCode;
 import middle.component.inst.CallInst;
+import middle.component.inst.GepInst;
 import middle.component.inst.Instruction;
 import middle.component.inst.PhiInst;
 import middle.component.inst.ZextInst;
 import middle.component.model.*;
 import middle.component.model.Module;
+import middle.component.type.UnDefined;
 import optimize.Mem2Reg;
 
 import java.util.*;
@@ -24,12 +29,26 @@ public class RegAlloc {
 
     // 干涉图结构
     private Map<Value, Node> nodeCache; // 变量 -> 节点
-    private Set<Node> graphNodes;       // 所有节点
+    private Set<Node> graphNodes;       // 所有节点 (合并后被吸收的节点会移出)
+    private List<Value[]> moves;        // 传送相关的变量对 (dst, src)
 
     // 配置参数
     private int kColors; // 可用颜色数量 (K)
     private final boolean enableExtraRegs = false; // 对应原本的 aggressive
 
+    // 寄存器池：调用者保存 (跨调用需在调用点保存) 与 被调用者保存 (只在序言/尾声保存一次)
+    private static final List<Register> CALLER_SAVED = List.of(
+            Register.T0, Register.T1, Register.T2, Register.T3, Register.T4,
+            Register.T5, Register.T6, Register.T7, Register.T8, Register.T9);
+    private static final List<Register> CALLEE_SAVED = List.of(
+            Register.S0, Register.S1, Register.S2, Register.S3, Register.S4,
+            Register.S5, Register.S6, Register.S7, Register.FP);
+
+    private List<Register> phyRegs;
+
+    // 指令数超过该阈值的函数改用线性扫描分配 (图着色建图代价随干涉边数超线性增长)
+    private static final int LINEAR_SCAN_THRESHOLD = 4000;
+
     /**
      * 执行分配的主入口
      */
@@ -38,17 +57,12 @@ public class RegAlloc {
         Mem2Reg.run(module, false);
 
         // 2. 初始化物理寄存器池
-        List<Register> phyRegs = new ArrayList<>();
-        for (Register r : Register.values()) {
-            // 只使用 t0-t9 作为通用分配寄存器
-            if (r.ordinal() >= Register.T0.ordinal() && r.ordinal() <= Register.T7.ordinal()) {
-                phyRegs.add(r);
-            }
-        }
-        // 如果开启激进模式，额外使用 gp, fp
+        // 颜色编号: [0, CALLER_SAVED.size()) 为调用者保存，其余为被调用者保存
+        phyRegs = new ArrayList<>(CALLER_SAVED);
+        phyRegs.addAll(CALLEE_SAVED);
+        // 如果开启激进模式，额外使用 gp
         if (enableExtraRegs) {
             phyRegs.add(Register.GP);
-            phyRegs.add(Register.FP);
         }
         this.kColors = phyRegs.size();
 
@@ -58,22 +72,29 @@ public class RegAlloc {
             initAnalysis(func);
             performLivenessAnalysis(func);
 
-            // B. 构建干涉图
-            buildGraph(func);
-
-            // C. 图着色
-            assignColors();
-
-            // D. 结果回写 (Mapping)
-            HashMap<Value, Register> allocationResult = new HashMap<>();
-            for (Node n : nodeCache.values()) {
-                // 跳过溢出的节点
-                if (n.spilled) continue;
-
-                // 将颜色映射回物理寄存器
-                Register reg = phyRegs.get(n.colorIndex);
-                allocationResult.put(n.val, reg);
-                // System.out.println("[Alloc] " + n.val.getName() + " -> " + reg);
+            HashMap<Value, Register> allocationResult;
+            if (countInstructions(func) > LINEAR_SCAN_THRESHOLD) {
+                // B'. 超大函数：线性扫描
+                allocationResult = new HashMap<>(
+                        new LinearScan(CALLER_SAVED, CALLEE_SAVED).allocate(func, liveOut));
+            } else {
+                // B. 构建干涉图
+                buildGraph(func);
+
+                // C. 图着色
+                assignColors();
+
+                // D. 结果回写 (Mapping)
+                allocationResult = new HashMap<>();
+                for (Node n : nodeCache.values()) {
+                    // 跳过溢出的节点
+                    if (n.spilled) continue;
+
+                    // 将颜色映射回物理寄存器
+                    Register reg = phyRegs.get(n.colorIndex);
+                    allocationResult.put(n.val, reg);
+                    // System.out.println("[Alloc] " + n.val.getName() + " -> " + reg);
+                }
             }
 
             // E. 处理函数调用的活跃寄存器 (Caller-Saved 优化)
@@ -86,44 +107,58 @@ public class RegAlloc {
 
     /**
      * 处理 Call指令的寄存器保存集合
-     * 核心逻辑：计算在该 Call 指令处，有哪些已分配寄存器的变量是活跃的
+     * 核心逻辑：从块出口 (OUT集合) 逆序扫描，得到每个 Call 之后仍然活跃的变量，
+     * 只收集其中分配到调用者保存寄存器的部分 (被调用者保存寄存器由被调函数负责)
      */
     private void resolveCallSites(Function func, Map<Value, Register> mapping) {
         for (BasicBlock bb : func.getBasicBlocks()) {
+            Set<Value> currentLive = new HashSet<>(liveOut.get(bb));
             List<Instruction> insts = bb.getInstructions();
-            for (int i = 0; i < insts.size(); i++) {
-                Instruction inst = insts.get(i);
 
-                // 只关注 Call 指令
-                if (!(inst instanceof CallInst)) continue;
-
-                CallInst call = (CallInst) inst;
-                Set<Register> activeRegs = new HashSet<>();
-
-                // 1. 检查块出口活跃的变量 (OUT集合)
-                for (Value v : liveOut.get(bb)) {
-                    if (mapping.containsKey(v)) {
-                        activeRegs.add(mapping.get(v));
-                    }
+            for (int i = insts.size() - 1; i >= 0; i--) {
+                Instruction inst = insts.get(i);
+                if (!inst.getName().isEmpty()) {
+                    currentLive.remove(inst);
                 }
 
-                // 2. 检查 Call 指令之后被使用的变量 (在同一个块内)
-                // 逻辑：如果变量在 Call 后面被用到，说明它跨越了 Call，必须保存
-                for (int j = i + 1; j < insts.size(); j++) {
-                    for (int k = 0;k < insts.get(j).getNumOperands();k++) {
-                        Value op = insts.get(j).getOperand(k);
-                        if (mapping.containsKey(op)) {
-                            activeRegs.add(mapping.get(op));
+                if (inst instanceof CallInst call) {
+                    Set<Register> activeRegs = new HashSet<>();
+                    for (Value v : currentLive) {
+                        Register reg = mapping.get(v);
+                        if (reg != null && !isCalleeSaved(reg)) {
+                            activeRegs.add(reg);
                         }
                     }
+                    // 设置到指令中，供 MipsBuilder 使用
+                    call.setActiveReg(activeRegs);
                 }
 
-                // 设置到指令中，供 MipsBuilder 使用
-                call.setActiveReg(activeRegs);
+                if (inst instanceof PhiInst) continue;
+                for (int k = 0; k < inst.getNumOperands(); k++) {
+                    Value op = inst.getOperand(k);
+                    if (canAllocate(op)) {
+                        currentLive.add(op);
+                    }
+                }
             }
         }
     }
 
+    private int countInstructions(Function func) {
+        int count = 0;
+        for (BasicBlock bb : func.getBasicBlocks()) {
+            count += bb.getInstructions().size();
+        }
+        return count;
+    }
+
+    /**
+     * 是否为被调用者保存寄存器 (函数使用时需要在序言中保存、尾声中恢复)
+     */
+    public static boolean isCalleeSaved(Register reg) {
+        return CALLEE_SAVED.contains(reg);
+    }
+
     // --- 数据流分析阶段 ---
 
     private void initAnalysis(Function f) {
@@ -145,9 +180,10 @@ public class RegAlloc {
         Set<Value> defList = defs.get(bb);
         Set<Value> useList = uses.get(bb);
 
-        // 1. 处理 Phi 节点
         for (Instruction inst : bb.getInstructions()) {
-            if (inst instanceof PhiInst) {
+            // 记录 Use
+            // Phi 的操作数不算本块的使用，而是在对应前驱的出口处活跃 (见 performLivenessAnalysis)
+            if (!(inst instanceof PhiInst)) {
                 for (int k = 0;k < inst.getNumOperands();k++) {
                     Value op = inst.getOperand(k);
                     if (canAllocate(op) && !defList.contains(op)) {
@@ -155,19 +191,8 @@ public class RegAlloc {
                     }
                 }
             }
-        }
-
-        // 2. 处理普通指令
-        for (Instruction inst : bb.getInstructions()) {
-            // 记录 Use
-            for (int k = 0;k < inst.getNumOperands();k++) {
-                Value op = inst.getOperand(k);
-                if (canAllocate(op) && !defList.contains(op)) {
-                    useList.add(op);
-                }
-            }
-            // 记录 Def (排除 Zext 和 无名指令)
-            if (!inst.getName().isEmpty() && !(inst instanceof ZextInst)) {
+            // 记录 Def (排除无名指令)
+            if (!inst.getName().isEmpty()) {
                 defList.add(inst);
             }
         }
@@ -194,10 +219,9 @@ public class RegAlloc {
                 for (BasicBlock succ : bb.getNextBlocks()) {
                     for (Instruction inst : succ.getInstructions()) {
                         if (inst instanceof PhiInst phi) {
-                            int idx = phi.getBlocks().indexOf(bb);
-                            if (idx != -1) {
-                                Value v = phi.getOperand(idx);
-                                if (canAllocate(v)) newOut.add(v);
+                            for (int k = 0; k < phi.getNumIncoming(); k++) {
+                                Value v = phi.getIncomingValue(k);
+                                if (phi.getIncomingBlock(k) == bb && canAllocate(v)) newOut.add(v);
                             }
                         } else {
                             break; // Phi 都在块开头
@@ -225,10 +249,12 @@ public class RegAlloc {
     private void buildGraph(Function f) {
         graphNodes = new HashSet<>();
         nodeCache = new HashMap<>();
+        moves = new ArrayList<>();
 
         for (BasicBlock bb : f.getBasicBlocks()) {
             Set<Value> currentLive = new HashSet<>(liveOut.get(bb));
             List<Instruction> insts = bb.getInstructions();
+            List<Node> phiNodes = new ArrayList<>();
 
             for (int i = insts.size() - 1; i >= 0; i--) {
                 Instruction inst = insts.get(i);
@@ -244,6 +270,29 @@ public class RegAlloc {
                     }
                 }
 
+                // 跨越真实函数调用仍然活跃的变量，优先分配被调用者保存寄存器
+                if (inst instanceof CallInst call && !call.getFunction().isDeclaration()) {
+                    for (Value liveVar : currentLive) {
+                        getNode(liveVar).crossCall = true;
+                    }
+                }
+
+                // 记录传送相关的变量对 (Phi 结果与其传入值、Zext 结果与其源值)，供合并使用
+                if (inst instanceof PhiInst phi) {
+                    phiNodes.add(getNode(phi));
+                    for (int k = 0; k < phi.getNumIncoming(); k++) {
+                        Value v = phi.getIncomingValue(k);
+                        if (canAllocate(v)) {
+                            moves.add(new Value[]{phi, v});
+                        }
+                    }
+                    // Phi 的操作数在前驱出口活跃，不在本块
+                    continue;
+                }
+                if (inst instanceof ZextInst && canAllocate(inst.getOperand(0))) {
+                    moves.add(new Value[]{inst, inst.getOperand(0)});
+                }
+
                 for (int k = 0; k < inst.getNumOperands(); k++) {
                     Value op = inst.getOperand(k);
                     if (canAllocate(op)) {
@@ -251,6 +300,23 @@ public class RegAlloc {
                     }
                 }
             }
+
+            // 参数在函数入口被同时定义，入口处活跃的参数两两互相干涉
+            if (bb == f.getBasicBlocks().getFirst()) {
+                List<Value> params = new ArrayList<>(currentLive);
+                for (int i = 0; i < params.size(); i++) {
+                    for (int j = i + 1; j < params.size(); j++) {
+                        link(getNode(params.get(i)), getNode(params.get(j)));
+                    }
+                }
+            }
+
+            // 同一块的 Phi 在块入口被同时定义 (并行拷贝的目标)，两两互相干涉
+            for (int i = 0; i < phiNodes.size(); i++) {
+                for (int j = i + 1; j < phiNodes.size(); j++) {
+                    link(phiNodes.get(i), phiNodes.get(j));
+                }
+            }
         }
     }
 
@@ -269,6 +335,9 @@ public class RegAlloc {
     // --- 着色阶段 ---
 
     private void assignColors() {
+        // 0. 保守合并 (Coalesce)：传送相关且不干涉的节点合并为一个，着同一种颜色
+        coalesce();
+
         Stack<Node> stack = new Stack<>();
         Set<Node> remaining = new HashSet<>(graphNodes); // 工作集
 
@@ -317,9 +386,12 @@ public class RegAlloc {
                 }
             }
 
-            // 寻找最小可用颜色
+            // 寻找可用颜色：跨调用的变量先找被调用者保存寄存器，
+            // 其余变量先找调用者保存寄存器 (不必在序言/尾声中保存)
             int chosenColor = -1;
-            for (int c = 0; c < kColors; c++) {
+            int callerCount = CALLER_SAVED.size();
+            for (int i = 0; i < kColors; i++) {
+                int c = n.crossCall ? (i + callerCount) % kColors : i;
                 if (!usedColors.contains(c)) {
                     chosenColor = c;
                     break;
@@ -332,29 +404,137 @@ public class RegAlloc {
                 n.spilled = true; // 真的没颜色了，标记溢出
             }
         }
+
+        // 3. 被合并的节点沿用代表节点的着色结果
+        for (Node n : nodeCache.values()) {
+            Node rep = find(n);
+            if (rep != n) {
+                n.colorIndex = rep.colorIndex;
+                n.spilled = rep.spilled;
+            }
+        }
+    }
+
+    /**
+     * 保守合并：Briggs 或 George 条件任一成立时才合并，保证合并不会让图变得不可着色
+     */
+    private void coalesce() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Value[] move : moves) {
+                Node u = find(getNode(move[0]));
+                Node v = find(getNode(move[1]));
+                if (u == v || u.adj.contains(v)) continue;
+
+                if (briggsTest(u, v) || georgeTest(u, v)) {
+                    combine(u, v);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Briggs: 合并后节点的高度数 (>= K) 邻居少于 K 个
+     */
+    private boolean briggsTest(Node u, Node v) {
+        Set<Node> neighbors = new HashSet<>(u.adj);
+        neighbors.addAll(v.adj);
+        int significant = 0;
+        for (Node t : neighbors) {
+            // 同时与 u、v 相邻的节点合并后度数减一
+            int deg = (u.adj.contains(t) && v.adj.contains(t)) ? t.deg - 1 : t.deg;
+            if (deg >= kColors) significant++;
+        }
+        return significant < kColors;
+    }
+
+    /**
+     * George: v 的每个邻居要么已与 u 干涉，要么是低度数节点
+     */
+    private boolean georgeTest(Node u, Node v) {
+        for (Node t : v.adj) {
+            if (t.deg >= kColors && !t.adj.contains(u)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 将 v 合并进 u：v 的边全部转移到 u，v 从图中移除
+     */
+    private void combine(Node u, Node v) {
+        v.alias = u;
+        u.crossCall |= v.crossCall;
+        for (Node t : new ArrayList<>(v.adj)) {
+            t.adj.remove(v);
+            t.deg--;
+            link(u, t);
+        }
+        v.adj.clear();
+        v.deg = 0;
+        graphNodes.remove(v);
+    }
+
+    private Node find(Node n) {
+        while (n.alias != null) {
+            n = n.alias;
+        }
+        return n;
     }
 
     private Node pickSpillCandidate(Set<Node> nodes) {
+        // 可重算的值溢出后不需要栈槽和访存，优先选它们 (其次按度数最大)
         Node best = null;
         int maxDeg = -1;
+        boolean bestRemat = false;
         for (Node n : nodes) {
-            if (n.deg > maxDeg) {
+            boolean remat = isRematerializable(n.val);
+            if ((remat && !bestRemat) || (remat == bestRemat && n.deg > maxDeg)) {
                 maxDeg = n.deg;
                 best = n;
+                bestRemat = remat;
             }
         }
         return best;
     }
 
-    private boolean canAllocate(Value v) {
+    /**
+     * 可重算的值：溢出时不分配栈槽，在每个使用点用一条指令重新计算
+     * - 两个常量操作数的运算 (如 GVN 物化的 add 0, imm)：li
+     * - 局部数组/变量的地址 (AllocInst)：addiu $sp
+     * - 基址为全局变量/字符串/局部数组、下标全为常量的 GEP：la label+off / addiu $sp
+     */
+    public static boolean isRematerializable(Value v) {
+        if (v instanceof BinaryInst binaryInst) {
+            return binaryInst.getOp1() instanceof ConstInt && binaryInst.getOp2() instanceof ConstInt
+                    && !(binaryInst.getOpCode() == BinaryOpCode.SDIV || binaryInst.getOpCode() == BinaryOpCode.SREM)
+                    && !(binaryInst.getOp1() instanceof UnDefined) && !(binaryInst.getOp2() instanceof UnDefined);
+        }
+        if (v instanceof AllocInst) {
+            return true;
+        }
+        if (v instanceof GepInst gepInst) {
+            Value base = gepInst.getPointer();
+            if (!(base instanceof GlobalVar || base instanceof ConstString || base instanceof AllocInst)) {
+                return false;
+            }
+            for (int i = 1; i < gepInst.getNumOperands(); i++) {
+                if (!(gepInst.getOperand(i) instanceof ConstInt)) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static boolean canAllocate(Value v) {
         // 过滤掉常量、全局变量、基本块引用等
-        // FuncParam 默认不分配（配合后端逻辑）
+        // FuncParam 参与分配：后端在序言中把它从 $a0-$a3 (或栈参数区) 取到分配的位置
         if (v instanceof ConstInt) return false;
         if (v instanceof ConstString) return false;
         if (v instanceof GlobalVar) return false;
         if (v instanceof BasicBlock) return false;
         if (v instanceof Function) return false;
-        if (v instanceof FuncParam) return false;
         return true;
     }
 
@@ -366,6 +546,8 @@ public class RegAlloc {
         int deg = 0;                     // 当前度数 (动态变化)
         int colorIndex = -1;             // 分配的颜色ID
         boolean spilled = false;         // 溢出标记
+        boolean crossCall = false;       // 是否跨越函数调用活跃
+        Node alias = null;               // 合并后的代表节点
 
         Node(Value v) {
             this.val = v;
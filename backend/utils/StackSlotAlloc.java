@@ -0,0 +1,173 @@
+package backend.utils;
+
+import backend.enums.Register;
+import middle.component.inst.Instruction;
+import middle.component.inst.MoveInst;
+import middle.component.model.BasicBlock;
+import middle.component.model.Function;
+import middle.component.model.Value;
+import middle.component.type.VoidType;
+
+import java.util.*;
+
+/**
+ * 栈槽着色
+ * 在 RemovePhi 之后、生成代码之前运行：为没有分配到寄存器 (且不可重算) 的变量分配栈槽，
+ * 活跃范围互不相交的变量共用同一个栈槽，从而缩小栈帧。
+ * 活跃分析与 RegAlloc 相同 (逐块 def/use + 迭代到不动点)，只是此时 Phi 已变成 MoveInst：
+ * Move 定义其目标 (操作数 0)、使用其源 (操作数 1)。
+ */
+public class StackSlotAlloc {
+    // 打开后在 stderr 输出每个函数溢出区的缩减情况
+    private static final boolean REPORT = false;
+
+    private final Function func;
+    private final Map<Value, Register> var2reg;
+
+    private final LinkedHashSet<Value> candidates = new LinkedHashSet<>();
+    private final Map<BasicBlock, Set<Value>> liveIn = new HashMap<>();
+    private final Map<BasicBlock, Set<Value>> liveOut = new HashMap<>();
+    private final Map<BasicBlock, Set<Value>> defs = new HashMap<>();
+    private final Map<BasicBlock, Set<Value>> uses = new HashMap<>();
+    private final Map<Value, Set<Value>> interference = new HashMap<>();
+
+    private StackSlotAlloc(Function func, Map<Value, Register> var2reg) {
+        this.func = func;
+        this.var2reg = var2reg;
+    }
+
+    /**
+     * 为函数中需要栈槽的变量分配槽号 (从 0 开始，每个槽 4 字节)
+     */
+    public static Map<Value, Integer> run(Function func, Map<Value, Register> var2reg) {
+        StackSlotAlloc alloc = new StackSlotAlloc(func, var2reg);
+        alloc.collectCandidates();
+        alloc.analyzeLiveness();
+        alloc.buildInterference();
+        Map<Value, Integer> slots = alloc.assignSlots();
+
+        if (REPORT) {
+            int used = slots.values().stream().mapToInt(i -> i + 1).max().orElse(0);
+            System.err.println("[StackSlot] " + func.getName() + ": " + alloc.candidates.size() * 4
+                    + " -> " + used * 4 + " bytes");
+        }
+        return slots;
+    }
+
+    private boolean needsSlot(Value v) {
+        return !var2reg.containsKey(v) && !RegAlloc.isRematerializable(v);
+    }
+
+    private Value defOf(Instruction inst) {
+        if (inst instanceof MoveInst move) {
+            Value dst = move.getToValue();
+            return candidates.contains(dst) ? dst : null;
+        }
+        return candidates.contains(inst) ? inst : null;
+    }
+
+    private void collectCandidates() {
+        for (BasicBlock bb : func.getBasicBlocks()) {
+            for (Instruction inst : bb.getInstructions()) {
+                if (inst instanceof MoveInst move) {
+                    if (needsSlot(move.getToValue())) {
+                        candidates.add(move.getToValue());
+                    }
+                } else if (!(inst.getType() instanceof VoidType) && needsSlot(inst)) {
+                    candidates.add(inst);
+                }
+            }
+        }
+    }
+
+    private void forEachUse(Instruction inst, java.util.function.Consumer<Value> action) {
+        // Move 的操作数 0 是目标，不是使用
+        int first = inst instanceof MoveInst ? 1 : 0;
+        for (int k = first; k < inst.getNumOperands(); k++) {
+            Value op = inst.getOperand(k);
+            if (candidates.contains(op)) {
+                action.accept(op);
+            }
+        }
+    }
+
+    private void analyzeLiveness() {
+        List<BasicBlock> blocks = func.getBasicBlocks();
+        for (BasicBlock bb : blocks) {
+            Set<Value> defSet = new HashSet<>();
+            Set<Value> useSet = new HashSet<>();
+            for (Instruction inst : bb.getInstructions()) {
+                forEachUse(inst, op -> {
+                    if (!defSet.contains(op)) useSet.add(op);
+                });
+                Value def = defOf(inst);
+                if (def != null) defSet.add(def);
+            }
+            defs.put(bb, defSet);
+            uses.put(bb, useSet);
+            liveIn.put(bb, new HashSet<>());
+            liveOut.put(bb, new HashSet<>());
+        }
+
+        boolean isStable = false;
+        while (!isStable) {
+            isStable = true;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                BasicBlock bb = blocks.get(i);
+                Set<Value> newOut = new HashSet<>();
+                for (BasicBlock succ : bb.getNextBlocks()) {
+                    newOut.addAll(liveIn.get(succ));
+                }
+                liveOut.put(bb, newOut);
+
+                Set<Value> newIn = new HashSet<>(newOut);
+                newIn.removeAll(defs.get(bb));
+                newIn.addAll(uses.get(bb));
+                if (!newIn.equals(liveIn.get(bb))) {
+                    liveIn.put(bb, newIn);
+                    isStable = false;
+                }
+            }
+        }
+    }
+
+    private void buildInterference() {
+        for (Value v : candidates) {
+            interference.put(v, new HashSet<>());
+        }
+        for (BasicBlock bb : func.getBasicBlocks()) {
+            Set<Value> currentLive = new HashSet<>(liveOut.get(bb));
+            List<Instruction> insts = bb.getInstructions();
+            for (int i = insts.size() - 1; i >= 0; i--) {
+                Instruction inst = insts.get(i);
+                Value def = defOf(inst);
+                if (def != null) {
+                    currentLive.remove(def);
+                    for (Value live : currentLive) {
+                        interference.get(def).add(live);
+                        interference.get(live).add(def);
+                    }
+                }
+                forEachUse(inst, currentLive::add);
+            }
+        }
+    }
+
+    /**
+     * 贪心着色：按定义顺序为每个变量选择邻居没有使用的最小槽号
+     */
+    private Map<Value, Integer> assignSlots() {
+        Map<Value, Integer> slots = new LinkedHashMap<>();
+        for (Value v : candidates) {
+            Set<Integer> taken = new HashSet<>();
+            for (Value neighbor : interference.get(v)) {
+                Integer slot = slots.get(neighbor);
+                if (slot != null) taken.add(slot);
+            }
+            int slot = 0;
+            while (taken.contains(slot)) slot++;
+            slots.put(v, slot);
+        }
+        return slots;
+    }
+}
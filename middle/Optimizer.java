@@ -22,12 +22,18 @@ public class Optimizer {
 
         // 1. 全局变量本地化
         // 必须在 Mem2Reg 之前。将只在单个函数使用的全局变量变成局部 alloca
-        // GlobalVarLocalize.run(module);
+        GlobalVarLocalize.run(module);
+
+        // 只用常量下标访问的小局部数组拆成标量，随后由 Mem2Reg 提升
+        SROA.run(module);
 
         // 2. 第一次 Mem2Reg
         // 消除前端生成的绝大部分 alloca，建立 SSA 形式
         Mem2Reg.run(module, true);
 
+        // 稀疏条件常量传播：常量沿 Phi 和分支传播，删去恒不成立的分支
+        SCCP.run(module);
+
         // 3. 基础死代码消除
         // 删掉 Mem2Reg 后可能留下的无用指令，减轻后续负担
         DeadCodeElimination.run(module);
@@ -35,6 +41,14 @@ public class Optimizer {
         // 4. 消除不可达块
         BlockSimplify.run(module);
 
+        // 5. 尾递归消除
+        // 自身尾调用改写为循环后，函数不再递归，后面的内联也可以处理它
+        TailRecursionElimination.run(module);
+
+        // 6. (可选) 自动记忆化
+        // 纯的 int 递归函数加上 .data 中的记忆表，指数级的朴素递归变为多项式级
+        Memoization.run(module);
+
 
         // ==========================================
         // 阶段 2: 强力迭代优化 (Iterative Optimization)
@@ -52,16 +66,41 @@ public class Optimizer {
             // 因为内联会引入新的 alloca 和控制流，后续的 Pass 才能优化它。
             InlineFunction.run(module);
 
+            // 循环中不被调用读写的全局标量改为局部变量，由下面的 Mem2Reg 提升到寄存器
+            LoopScalarPromotion.run(module);
+            SROA.run(module);
+
             // --- Step B: SSA 修复 (Mem2Reg) ---
             // 内联后，被内联函数的局部变量变成了当前函数的 alloca。
             // 必须再次运行 Mem2Reg 将其提升为寄存器，否则 GVN 分析不到它们。
             Mem2Reg.run(module, true);
 
+            // 内联传入的常量实参沿分支与 Phi 传播
+            SCCP.run(module);
+            // 跨块的算术/比较链化简，结果交给 GVN 去重
+            InstCombine.run(module);
+            // 加法/乘法链按秩重排，让 GVN 能识别操作数顺序不同的相同表达式
+            Reassociate.run(module);
+
             // --- Step C: 算术与冗余消除 (GVN) ---
             // 内联会带来大量的常量传播机会（例如 func(10)）。
             // GVN 负责常量折叠和公共子表达式消除。
             // 注意：你的 GVN 如果包含了 ConstProp，这里就非常强力。
             GVN.run(module);
+            // 乐观编号：识别跨 Phi / 循环的等价值 (例如初值和步长相同的两个归纳变量)
+            NewGVN.run(module);
+            // 部分冗余：只在某些前驱上算过的表达式，补齐缺失的入边后用 Phi 合并
+            PRE.run(module);
+
+            // GVN 把下标折叠为常量后，只读全局数组的访存可以直接替换为初始值
+            ReadOnlyGlobalFold.run(module);
+            // 支配分支的条件在其区域内成立：折叠被蕴含的比较，x == c 的区域内 x 换成常量
+            PredicatePropagation.run(module);
+            // 折叠出的初始值与上面推出的常量条件可能让比较和分支变成常量
+            SCCP.run(module);
+
+            // 循环间复用数组元素 (a[i-1] 取上一轮的 a[i])，依赖 GVN 合并后的地址
+            ScalarReplacement.run(module);
 
             // --- Step D: 激进的代码移动 (GCM) ---
             // 在 GVN 清理完冗余后，GCM 将计算移动到循环外或分支内。
@@ -70,7 +109,11 @@ public class Optimizer {
 
             // --- Step E: 清理 (Cleanup) ---
             // GVN 和 GCM 会导致某些计算结果不再被使用，或者产生死分支。
+            // 先删去死存储，它们引用的值随后由 DCE 清理
+            DeadStoreElimination.run(module);
             DeadCodeElimination.run(module);
+            // 只计算无用值的分支和循环整个删除，留下的不可达块由 BlockSimplify 清理
+            ADCE.run(module, true);
             BlockSimplify.run(module);
         }
 
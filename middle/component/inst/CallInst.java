@@ -1,8 +1,11 @@
 package middle.component.inst;
 
 import backend.enums.Register; // 引入后端的寄存器枚举
+import middle.component.model.FuncParam;
 import middle.component.model.Function;
+import middle.component.model.GlobalVar;
 import middle.component.model.Value;
+import middle.component.type.PointerType;
 import middle.component.type.VoidType;
 
 import java.util.ArrayList;
@@ -53,6 +56,21 @@ public class CallInst extends Instruction {
         return this.getOperand(i + 1);
     }
 
+    /**
+     * 指针实参是否都不指向调用者自己的栈帧：基址只能是形参或全局变量 (可带一层 GEP)，
+     * 局部数组 (alloca) 及无法判断来源的指针都视为指向栈帧。
+     * 调用者的栈帧在调用之前被释放或复用时 (尾递归改写为循环、尾调用改为跳转) 必须满足这一条件。
+     */
+    public boolean hasOnlyNonLocalPointerArgs() {
+        for (int i = 0; i < getNumArgs(); i++) {
+            Value arg = getArg(i);
+            if (!(arg.getType() instanceof PointerType)) continue;
+            Value base = arg instanceof GepInst gep ? gep.getPointer() : arg;
+            if (!(base instanceof FuncParam) && !(base instanceof GlobalVar)) return false;
+        }
+        return true;
+    }
+
     // ==========================================
     // 后端接口实现
     // ==========================================
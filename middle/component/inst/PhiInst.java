@@ -105,13 +105,20 @@ public class PhiInst extends Instruction {
      * 移除第 i 个传入项 (Val, Block)
      */
     public void removeIncoming(int index) {
-        // 操作数索引： value 是 index*2， block 是 index*2+1
-        int operandIndex = index * 2;
-
-        // 移除 Block (User 的 operands 列表)
-        this.getOperands().remove(operandIndex + 1);
-        // 移除 Value
-        this.getOperands().remove(operandIndex);
+        // Use 记录了自己在操作数列表中的下标，直接从列表中删除会让后面的 Use 下标错位，
+        // 且被删除的 Use 仍留在值的使用链上；因此解除全部链接后按剩余的入口重新添加
+        List<Value> values = new ArrayList<>();
+        List<BasicBlock> blocks = new ArrayList<>();
+        for (int i = 0; i < getNumIncoming(); i++) {
+            if (i == index) continue;
+            values.add(getIncomingValue(i));
+            blocks.add(getIncomingBlock(i));
+        }
+        this.removeOperands();
+        this.getOperands().clear();
+        for (int i = 0; i < values.size(); i++) {
+            addIncoming(values.get(i), blocks.get(i));
+        }
     }
 
 
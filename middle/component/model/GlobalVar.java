@@ -23,6 +23,11 @@ public class GlobalVar extends Constant {
      */
     private final boolean isConst;
 
+    /**
+     * 属性：优化阶段分析出的只读变量 (从未被写入，见 ReadOnlyGlobalFold)
+     */
+    private boolean readOnly = false;
+
     /**
      * 构造函数。
      * @param name IR 中的名字 (例如 @g_var)
@@ -50,6 +55,14 @@ public class GlobalVar extends Constant {
         return this.isConst;
     }
 
+    public boolean isReadOnly() {
+        return this.isConst || this.readOnly;
+    }
+
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
     /**
      * 获取全局变量 *指向* 的类型 (指针解引用后的类型)。
      * 例如，如果 GlobalVar 的 Type 是 [10 x i32]*，
@@ -68,7 +81,7 @@ public class GlobalVar extends Constant {
         //    例如: "@g = dso_local global i32 0"
         //
         String linkage = "dso_local";
-        String kind = this.isConst ? "constant" : "global";
+        String kind = this.isReadOnly() ? "constant" : "global";
         String typeStr = this.getPointeeType().toString();
         //
         // (处理 zeroinitializer 或 null)
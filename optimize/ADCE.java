@@ -0,0 +1,97 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import optimize.analysis.LoopAnalysis;
+import optimize.analysis.PostDominance;
+import optimize.analysis.SideEffectAnalysis;
+
+import java.util.*;
+
+/**
+ * 激进死代码消除 (ADCE)
+ * 与 DeadCodeElimination 的区别在于条件分支不再天然有用：
+ * 1. 从关键指令 (有副作用的指令、ret) 出发反向标记；
+ * 2. 有用指令所在的块有用，它控制依赖的块的条件分支随之有用；
+ *    有用的 Phi 还要求它的各前驱块有用 (决定取哪个入口值)；
+ * 3. 没有被标记的条件分支改为直接跳到它的直接后支配者，中间的块变为不可达，由 BlockSimplify 删除。
+ * 只计算无用值的循环因此会被整个删掉。
+ * removeLoops 为 false 时保留所有循环的回边与出口分支 (不假设循环一定终止)。
+ * 存在无出口的循环时后支配树没有定义，退化为只删除无用的非分支指令。
+ */
+public class ADCE {
+
+    public static void run(Module module, boolean removeLoops) {
+        SideEffectAnalysis.run(module);
+        // 重建 CFG 与支配树
+        Mem2Reg.run(module, false);
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            runOnFunction(function, removeLoops);
+        }
+    }
+
+    private static void runOnFunction(Function function, boolean removeLoops) {
+        PostDominance pd = PostDominance.run(function);
+        Set<Instruction> live = new HashSet<>();
+        Set<BasicBlock> liveBlocks = new HashSet<>();
+        Deque<Instruction> worklist = new ArrayDeque<>();
+
+        // 1. 根
+        for (BasicBlock bb : function.getBasicBlocks()) {
+            for (Instruction inst : bb.getInstructions()) {
+                boolean root = inst instanceof BrInst br
+                        ? pd == null || (br.isConditional() && pd.getImmediatePostDominator(bb) == null)
+                        : inst instanceof RetInst || DeadCodeElimination.isCritical(inst);
+                if (root && live.add(inst)) worklist.add(inst);
+            }
+        }
+        if (!removeLoops && pd != null) {
+            for (LoopAnalysis.Loop loop : LoopAnalysis.run(function)) {
+                List<BasicBlock> keep = new ArrayList<>(loop.getLatches());
+                keep.addAll(loop.getExitingBlocks());
+                for (BasicBlock bb : keep) {
+                    if (live.add(bb.getTerminator())) worklist.add(bb.getTerminator());
+                }
+            }
+        }
+
+        // 2. 传播：操作数、控制依赖、Phi 的前驱
+        while (!worklist.isEmpty()) {
+            Instruction inst = worklist.poll();
+            for (Use use : inst.getOperands()) {
+                if (use.getValue() instanceof Instruction op && live.add(op)) worklist.add(op);
+            }
+            if (pd == null) continue;
+            // 有用的 Phi：各前驱块的跳转决定了取哪个入口值
+            if (inst instanceof PhiInst phi) {
+                for (BasicBlock pred : phi.getBlocks()) {
+                    if (live.add(pred.getTerminator())) worklist.add(pred.getTerminator());
+                }
+            }
+            // 块有用：它控制依赖的条件分支都有用
+            if (liveBlocks.add(inst.getParent())) {
+                for (BasicBlock dep : pd.getControlDependences(inst.getParent())) {
+                    if (live.add(dep.getTerminator())) worklist.add(dep.getTerminator());
+                }
+            }
+        }
+
+        // 3. 删除：无用的条件分支改跳到直接后支配者，其余无用指令直接删除
+        for (BasicBlock bb : function.getBasicBlocks()) {
+            for (Instruction inst : new ArrayList<>(bb.getInstructions())) {
+                if (live.contains(inst)) continue;
+                if (inst instanceof BrInst br) {
+                    if (!br.isConditional()) continue;
+                    br.removeOperands();
+                    bb.getInstructions().remove(br);
+                    bb.addInstruction(new BrInst(pd.getImmediatePostDominator(bb)));
+                    continue;
+                }
+                inst.removeOperands();
+                bb.getInstructions().remove(inst);
+            }
+        }
+    }
+}
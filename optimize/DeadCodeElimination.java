@@ -6,6 +6,8 @@ import middle.component.inst.io.PutintInst;
 import middle.component.inst.io.PutstrInst;
 import middle.component.model.*;
 import middle.component.model.Module;
+import optimize.analysis.AliasAnalysis;
+import optimize.analysis.SideEffectAnalysis;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -14,6 +16,9 @@ import java.util.Stack;
 public class DeadCodeElimination {
 
     public static void run(Module module) {
+        // 0. 函数副作用分析：无副作用的调用可以像普通指令一样删除
+        SideEffectAnalysis.run(module);
+
         // 1. 简单的迭代删除 (处理 UseList 为空的情况)
         boolean changed = true;
         while (changed) {
@@ -44,9 +49,8 @@ public class DeadCodeElimination {
      */
     private static boolean isTriviallyDead(Instruction inst) {
         // 有副作用的指令绝不能删 (Store, Call, Br, Ret, Put...)
-        if (inst.hasSideEffect()) {
-            // 特殊情况：无副作用的函数调用 (Pure Function) 可以删
-            // 这里简单起见，假设所有 Call 都有副作用，除非你实现了 SideEffectAnalysis
+        // 特殊情况：无副作用的函数调用 (纯函数/只读函数) 可以删
+        if (inst.hasSideEffect() && !isSideEffectFreeCall(inst)) {
             return false;
         }
 
@@ -115,14 +119,13 @@ public class DeadCodeElimination {
      * 判断指令是否是“关键指令”(Critical Instruction)
      * 关键指令包括：有副作用的指令、终结指令 (控制流)
      */
-    private static boolean isCritical(Instruction inst) {
-        // 1. 写内存 (Store)
-        if (inst instanceof StoreInst) return true;
+    static boolean isCritical(Instruction inst) {
+        // 1. 写内存 (Store)，写入一定不会被读到的地址 (不逃逸且从未被 load 的局部数组) 除外
+        if (inst instanceof StoreInst store) return !AliasAnalysis.isUnread(store.getPointer());
 
-        // 2. IO 操作 / 函数调用
-        // (假设所有 Call 都是关键的，除非有纯函数分析)
-        if (inst instanceof CallInst) return true;
+        // 2. IO 操作 / 函数调用 (没有副作用的调用只在结果被使用时才有用)
         if (inst instanceof PutintInst || inst instanceof PutstrInst || inst instanceof GetintInst) return true;
+        if (inst instanceof CallInst) return !isSideEffectFreeCall(inst);
 
         // 3. 控制流 (Br, Ret)
         if (inst instanceof BrInst || inst instanceof RetInst) return true;
@@ -134,4 +137,8 @@ public class DeadCodeElimination {
 
         return inst.hasSideEffect();
     }
+
+    private static boolean isSideEffectFreeCall(Instruction inst) {
+        return inst instanceof CallInst call && SideEffectAnalysis.hasNoSideEffect(call);
+    }
 }
\ No newline at end of file
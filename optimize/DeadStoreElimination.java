@@ -0,0 +1,195 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import optimize.analysis.AliasAnalysis;
+import optimize.analysis.LoopAnalysis;
+import optimize.analysis.PostDominance;
+import optimize.analysis.SideEffectAnalysis;
+
+import java.util.*;
+
+/**
+ * 死存储消除 (DSE)
+ * 1. 从未被读取 (没有 load、地址也没有传给函数) 的局部数组：删除它的所有 store 以及 alloca 本身。
+ * 2. 块内逆序扫描：被之后的 store 完全覆盖、且中间没有可能读到它的 load/调用的 store 可以删除。
+ * 3. 以 ret 结束的块：函数返回后局部数组不再可见，main 返回后全局变量也不再可见，
+ *    之后没有被读取的这类 store 可以删除。
+ * 4. 跨块：store 所在块 A 的某个后支配块 B 中，在任何读之前有一个 must-alias 的 store，
+ *    且从 A 到 B 之间的所有路径上都没有可能读到它的 load/调用时，所有路径上它都会先被覆盖。
+ *    这些路径不能回到 A 或支配 A 的块 (否则地址中的 SSA 值可能已经改变，或者 A 再次执行)。
+ */
+public class DeadStoreElimination {
+
+    public static void run(Module module) {
+        SideEffectAnalysis.run(module);
+        // 跨块消除需要 CFG 与支配树
+        Mem2Reg.run(module, false);
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            boolean isMain = function.getName().equals("main") || function.getName().equals("@main");
+            removeUnreadAllocas(function);
+            for (BasicBlock bb : function.getBasicBlocks()) {
+                runOnBlock(bb, isMain);
+            }
+            removeOverwrittenOnAllPaths(function);
+        }
+    }
+
+    // --- 1. 从未被读取的局部数组 ---
+
+    private static void removeUnreadAllocas(Function function) {
+        List<AllocInst> allocas = new ArrayList<>();
+        for (BasicBlock bb : function.getBasicBlocks()) {
+            for (Instruction inst : bb.getInstructions()) {
+                if (inst instanceof AllocInst alloc) allocas.add(alloc);
+            }
+        }
+        for (AllocInst alloc : allocas) {
+            List<Instruction> accesses = new ArrayList<>();
+            if (!isWriteOnly(alloc, accesses)) continue;
+            // store 在前，GEP 按由内到外的顺序收集在后
+            for (Instruction inst : accesses) {
+                inst.removeOperands();
+                inst.getParent().getInstructions().remove(inst);
+            }
+            alloc.getParent().getInstructions().remove(alloc);
+        }
+    }
+
+    /**
+     * 地址 (经过 GEP) 只被用作 store 的目标
+     */
+    private static boolean isWriteOnly(Value pointer, List<Instruction> accesses) {
+        List<GepInst> geps = new ArrayList<>();
+        for (Use use : pointer.getUseList()) {
+            User user = use.getUser();
+            if (user instanceof StoreInst store && store.getPointer() == pointer && store.getValue() != pointer) {
+                accesses.add(store);
+            } else if (user instanceof GepInst gep && gep.getPointer() == pointer) {
+                geps.add(gep);
+            } else {
+                return false;
+            }
+        }
+        for (GepInst gep : geps) {
+            if (!isWriteOnly(gep, accesses)) return false;
+            accesses.add(gep);
+        }
+        return true;
+    }
+
+    // --- 2/3. 块内逆序扫描 ---
+
+    private static void runOnBlock(BasicBlock bb, boolean isMain) {
+        // 之后一定会被覆盖、且覆盖前不会被读的地址
+        List<Value> overwritten = new ArrayList<>();
+        // 块以 ret 结束时，之后被读取的地址 (其余的局部数组/全局变量地址都是死的)
+        boolean atExit = bb.getLastInstruction() instanceof RetInst;
+        List<Value> readAfter = new ArrayList<>();
+        List<CallInst> callsAfter = new ArrayList<>();
+
+        List<Instruction> insts = bb.getInstructions();
+        for (int i = insts.size() - 1; i >= 0; i--) {
+            Instruction inst = insts.get(i);
+            if (inst instanceof StoreInst store) {
+                Value ptr = store.getPointer();
+                if (isOverwritten(ptr, overwritten) || (atExit && isDeadAtExit(ptr, readAfter, callsAfter, isMain))) {
+                    store.removeOperands();
+                    insts.remove(i);
+                    continue;
+                }
+                overwritten.add(ptr);
+            } else if (inst instanceof LoadInst load) {
+                overwritten.removeIf(ptr -> AliasAnalysis.mayAlias(ptr, load.getPointer()));
+                readAfter.add(load.getPointer());
+            } else if (inst instanceof CallInst call) {
+                overwritten.removeIf(ptr -> AliasAnalysis.getModRef(call, ptr).isRef());
+                callsAfter.add(call);
+            }
+        }
+    }
+
+    private static boolean isOverwritten(Value ptr, List<Value> overwritten) {
+        for (Value later : overwritten) {
+            if (AliasAnalysis.mustAlias(ptr, later)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isDeadAtExit(Value ptr, List<Value> readAfter, List<CallInst> callsAfter, boolean isMain) {
+        Value base = SideEffectAnalysis.getBase(ptr);
+        boolean diesAtExit = base instanceof AllocInst || (isMain && base instanceof GlobalVar);
+        if (!diesAtExit) return false;
+        for (Value read : readAfter) {
+            if (AliasAnalysis.mayAlias(ptr, read)) return false;
+        }
+        for (CallInst call : callsAfter) {
+            if (AliasAnalysis.getModRef(call, ptr).isRef()) return false;
+        }
+        return true;
+    }
+
+    // --- 4. 跨块：所有路径上都先被覆盖 ---
+
+    private static void removeOverwrittenOnAllPaths(Function function) {
+        PostDominance pd = PostDominance.run(function);
+        // 存在无出口的循环时后支配关系没有定义
+        if (pd == null) return;
+        for (BasicBlock bb : function.getBasicBlocks()) {
+            for (Instruction inst : new ArrayList<>(bb.getInstructions())) {
+                if (inst instanceof StoreInst store && isOverwrittenLater(store, pd)) {
+                    store.removeOperands();
+                    bb.getInstructions().remove(store);
+                }
+            }
+        }
+    }
+
+    private static boolean isOverwrittenLater(StoreInst store, PostDominance pd) {
+        BasicBlock from = store.getParent();
+        Value ptr = store.getPointer();
+        // 本块中 store 之后的读 (块内的覆盖已经由 runOnBlock 处理)
+        List<Instruction> insts = from.getInstructions();
+        for (int i = insts.indexOf(store) + 1; i < insts.size(); i++) {
+            if (mayRead(insts.get(i), ptr)) return false;
+        }
+        // 沿后支配树向上找覆盖它的块；途中的块一定执行，其中的读会让更远的块也不可用
+        for (BasicBlock to = pd.getImmediatePostDominator(from); to != null; to = pd.getImmediatePostDominator(to)) {
+            Set<BasicBlock> region = blocksBetween(from, to);
+            if (region == null) return false;
+            for (BasicBlock bb : region) {
+                for (Instruction inst : bb.getInstructions()) {
+                    if (mayRead(inst, ptr)) return false;
+                }
+            }
+            for (Instruction inst : to.getInstructions()) {
+                if (inst instanceof StoreInst later && AliasAnalysis.mustAlias(ptr, later.getPointer())) return true;
+                if (mayRead(inst, ptr)) return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 从 from 出发、不经过 to 能到达的块；路径回到 from 或支配 from 的块时返回 null
+     */
+    private static Set<BasicBlock> blocksBetween(BasicBlock from, BasicBlock to) {
+        Set<BasicBlock> region = new HashSet<>();
+        Deque<BasicBlock> worklist = new ArrayDeque<>(from.getNextBlocks());
+        while (!worklist.isEmpty()) {
+            BasicBlock bb = worklist.poll();
+            if (bb == to || !region.add(bb)) continue;
+            if (LoopAnalysis.dominates(bb, from)) return null;
+            worklist.addAll(bb.getNextBlocks());
+        }
+        return region;
+    }
+
+    private static boolean mayRead(Instruction inst, Value ptr) {
+        if (inst instanceof LoadInst load) return AliasAnalysis.mayAlias(ptr, load.getPointer());
+        if (inst instanceof CallInst call) return AliasAnalysis.getModRef(call, ptr).isRef();
+        return false;
+    }
+}
@@ -3,6 +3,9 @@ package optimize;
 import middle.component.inst.*;
 import middle.component.model.*;
 import middle.component.model.Module;
+import optimize.analysis.AliasAnalysis;
+import optimize.analysis.LoopAnalysis;
+import optimize.analysis.SideEffectAnalysis;
 
 import java.util.*;
 
@@ -20,7 +23,11 @@ public class GCM {
     // 记录指令 -> "最终决定的块" (Step 3 会用到，先定义着)
     private static final Map<Instruction, BasicBlock> finalBlockMap = new HashMap<>();
 
+    // 当前函数中所有写内存的指令 (store 与调用)，用于判断 load 能否移动
+    private static final List<Instruction> memoryWriters = new ArrayList<>();
+
     public static void run(Module module) {
+        SideEffectAnalysis.run(module);
         for (Function func : module.getFunctions()) {
             if (func.isDeclaration()) continue;
             runOnFunction(func);
@@ -30,7 +37,20 @@ public class GCM {
     private static void runOnFunction(Function func) {
         // 1. 基础信息
         computeDomDepth(func.getEntryBlock(), 0);
-        // 如果有循环分析，在这里运行 LoopAnalysis.run(func);
+        // 循环深度：块所在最内层循环的嵌套深度，循环外为 0
+        for (BasicBlock bb : func.getBasicBlocks()) bb.setLoopDepth(0);
+        for (LoopAnalysis.Loop loop : LoopAnalysis.run(func)) {
+            for (BasicBlock bb : loop.getBlocks()) {
+                bb.setLoopDepth(Math.max(bb.getLoopDepth(), loop.getDepth()));
+            }
+        }
+
+        memoryWriters.clear();
+        for (BasicBlock bb : func.getBasicBlocks()) {
+            for (Instruction inst : bb.getInstructions()) {
+                if (inst instanceof StoreInst || inst instanceof CallInst) memoryWriters.add(inst);
+            }
+        }
 
         earlyBlockMap.clear();
         lateBlockMap.clear();
@@ -231,10 +251,23 @@ public class GCM {
             return false;
         }
 
+        // load：函数中没有任何 store/调用可能改写它读的地址时，可以像算术指令一样移动
+        if (inst instanceof LoadInst load) {
+            return isClobbered(load.getPointer());
+        }
+
         // 2. 剩下的通常都要钉住 (Load/Store/Call/Br/Ret/Phi)
         return true;
     }
 
+    private static boolean isClobbered(Value pointer) {
+        for (Instruction writer : memoryWriters) {
+            if (writer instanceof StoreInst store && AliasAnalysis.mayAlias(store.getPointer(), pointer)) return true;
+            if (writer instanceof CallInst call && AliasAnalysis.getModRef(call, pointer).isMod()) return true;
+        }
+        return false;
+    }
+
     // 辅助方法：判断 OpCode 是否为比较运算
     private static boolean isCompareOp(BinaryOpCode op) {
         return switch (op) {
@@ -268,7 +301,8 @@ public class GCM {
 
             if (early == null || late == null) continue;
 
-            BasicBlock best = findBestBlock(early, late);
+            // 可能陷入的指令不上提到原位置之前，但也不下沉到更深的循环中
+            BasicBlock best = findBestBlock(mayTrap(inst) ? inst.getParent() : early, late);
 
             if (best != inst.getParent()) {
                 moveInst(inst, best);
@@ -277,22 +311,26 @@ public class GCM {
     }
 
     /**
-     * 在 [Early, Late] 支配链上，找到循环深度最小的块
+     * 在 [Early, Late] 支配链上，找到循环深度最小的块；深度相同时取最靠近 Late 的块，
+     * 这样可以缩短变量的活跃周期，减轻寄存器分配压力
      */
     private static BasicBlock findBestBlock(BasicBlock early, BasicBlock late) {
-        // 如果还没有循环深度信息，假设都是 0
-        int earlyDepth = early.getLoopDepth(); // 确保 BasicBlock 有这个方法，默认返回 0
-        int lateDepth = late.getLoopDepth();
-
-        // 【核心策略修正】
-        // 只有当 Early 确实比 Late 处于更外层循环时，才进行提升 (LICM)
-        if (earlyDepth < lateDepth) {
-            return early;
+        BasicBlock best = late;
+        for (BasicBlock bb = late; bb != null; bb = bb.getImmediateDominator()) {
+            if (bb.getLoopDepth() < best.getLoopDepth()) best = bb;
+            if (bb == early) break;
         }
+        return best;
+    }
 
-        // 其他情况（同层循环，或者都在循环外），优先放在 Late
-        // 这样可以缩短变量的活跃周期，极大减轻寄存器分配压力
-        return late;
+    /**
+     * 提到循环外后即使循环一次也不执行也会被执行：除法可能除零，load 可能越界，不做这种投机；
+     * 它们只在 [原所在块, Late] 之间选择
+     */
+    private static boolean mayTrap(Instruction inst) {
+        if (inst instanceof LoadInst) return true;
+        return inst instanceof BinaryInst binary
+                && (binary.getOpCode() == BinaryOpCode.SDIV || binary.getOpCode() == BinaryOpCode.SREM);
     }
 
     /**
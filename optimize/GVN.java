@@ -2,14 +2,22 @@ package optimize;
 
 import middle.component.inst.BinaryInst;
 import middle.component.inst.BinaryOpCode;
+import middle.component.inst.CallInst;
 import middle.component.inst.GepInst;
 import middle.component.inst.Instruction;
+import middle.component.inst.LoadInst;
+import middle.component.inst.StoreInst;
+import middle.component.inst.TruncInst;
+import middle.component.inst.ZextInst;
 import middle.component.model.BasicBlock;
 import middle.component.model.ConstInt;
 import middle.component.model.Function;
 import middle.component.model.Value;
 import middle.component.type.IntegerType;
+import middle.component.type.VoidType;
 import middle.component.model.Module;
+import optimize.analysis.AliasAnalysis;
+import optimize.analysis.SideEffectAnalysis;
 
 import java.util.*;
 
@@ -19,40 +27,43 @@ public class GVN {
     private static final Map<String, Value> valueNumberMap = new HashMap<>();
 
     public static void run(Module module) {
+        // 纯函数调用参与编号，只读调用不打断访存转发
+        SideEffectAnalysis.run(module);
         for (Function func : module.getFunctions()) {
             if (func.isDeclaration()) continue;
             valueNumberMap.clear();
-            runOnBlock(func.getEntryBlock());
+            runOnBlock(func.getEntryBlock(), new HashMap<>());
         }
         // 建议：GVN 之后通常会产生大量死代码，建议在此处显式调用 DCE
         // DeadCodeElimination.run(module);
     }
 
-    private static void runOnBlock(BasicBlock block) {
+    /**
+     * @param availableMemory 访存转发表：指针 -> 该地址在块入口处已知的值 (store 的值或 load 的结果)
+     */
+    private static void runOnBlock(BasicBlock block, Map<Value, Value> availableMemory) {
         Set<String> currentScopeHashes = new HashSet<>();
         List<Instruction> instructions = new ArrayList<>(block.getInstructions());
 
         for (Instruction inst : instructions) {
             if (inst.getParent() == null) continue;
 
+            // --- 0. 冗余 load 消除 / store 到 load 的转发 ---
+            if (forwardMemory(inst, availableMemory)) {
+                continue;
+            }
+
             // --- 1. 尝试常量折叠 & 代数化简 ---
             Value simplifiedVal = trySimplify(inst);
 
             if (simplifiedVal != null) {
-                // 【关键策略】将常量“实体化”为指令
-                if (simplifiedVal instanceof ConstInt c) {
-                    simplifiedVal = materializeConstant(c, inst);
-                }
-
-                // 只有实体化成功才替换
-                if (simplifiedVal != null) {
-                    inst.replaceAllUsesWith(simplifiedVal);
-                    inst.removeOperands();
-                    if (inst.getParent() != null) {
-                        inst.getParent().getInstructions().remove(inst);
-                    }
-                    continue; // 指令已优化，跳过 Hash 步骤
+                // 常量结果直接作为操作数使用
+                inst.replaceAllUsesWith(simplifiedVal);
+                inst.removeOperands();
+                if (inst.getParent() != null) {
+                    inst.getParent().getInstructions().remove(inst);
                 }
+                continue; // 指令已优化，跳过 Hash 步骤
             }
 
             // --- 2. GVN 哈希查表去重 ---
@@ -75,9 +86,11 @@ public class GVN {
             }
         }
 
-        // 支配树递归
+        // 支配树递归：子块继承本块出口的访存表，再去掉从本块到子块之间的路径上可能被改写的地址
         for (BasicBlock child : block.getImmediateDominateBlocks()) {
-            runOnBlock(child);
+            Map<Value, Value> childMemory = new HashMap<>(availableMemory);
+            killOnPaths(block, child, childMemory);
+            runOnBlock(child, childMemory);
         }
 
         // 回溯清理
@@ -87,48 +100,51 @@ public class GVN {
     }
 
     /**
-     * 【最终版】常量实体化
-     * i32 常量 -> add i32 0, imm
-     * i1  常量 -> icmp eq i32 0, 0 (true) / icmp ne i32 0, 0 (false)
+     * 访存转发 (按指针对象判等，GVN 已经合并了相同的 GEP)
+     * store 删去所有可能与之别名的地址后记录它自己写入的值；
+     * 调用删去它可能写入的地址 (见 AliasAnalysis.getModRef)，只读/纯函数调用不影响。
+     * @return 指令是否被删除
      */
-    private static Value materializeConstant(ConstInt c, Instruction insertBefore) {
-        if (!(c.getType() instanceof IntegerType type)) return null;
-
-        // 准备插入位置
-        BasicBlock block = insertBefore.getParent();
-        List<Instruction> list = block.getInstructions();
-        int idx = list.indexOf(insertBefore);
-        if (idx == -1) return null;
-
-        BinaryInst newInst;
-
-        // --- 情况 A: i1 布尔类型 (True/False) ---
-        if (type.getBitWidth() == 1) {
-            // 我们利用 i32 的 0 来生成 i1 结果
-            ConstInt zero32 = ConstInt.get(IntegerType.get32(), 0);
-
-            if (c.getValue() != 0) {
-                // 目标是 true: 生成 0 == 0
-                newInst = new BinaryInst(BinaryOpCode.EQ, zero32, zero32);
-                newInst.setName("gvn_true");
-            } else {
-                // 目标是 false: 生成 0 != 0
-                newInst = new BinaryInst(BinaryOpCode.NE, zero32, zero32);
-                newInst.setName("gvn_false");
+    private static boolean forwardMemory(Instruction inst, Map<Value, Value> availableMemory) {
+        if (inst instanceof LoadInst load) {
+            Value known = availableMemory.get(load.getPointer());
+            if (known != null && known.getType().toString().equals(load.getType().toString())) {
+                load.replaceAllUsesWith(known);
+                load.removeOperands();
+                load.getParent().getInstructions().remove(load);
+                return true;
             }
+            availableMemory.put(load.getPointer(), load);
+        } else if (inst instanceof StoreInst store) {
+            availableMemory.keySet().removeIf(ptr -> AliasAnalysis.mayAlias(ptr, store.getPointer()));
+            availableMemory.put(store.getPointer(), store.getValue());
+        } else if (inst instanceof CallInst call) {
+            availableMemory.keySet().removeIf(ptr -> AliasAnalysis.getModRef(call, ptr).isMod());
         }
-        // --- 情况 B: i32 整数类型 ---
-        else {
-            ConstInt zero = ConstInt.get(type, 0);
-            // 生成 add 0, imm
-            newInst = new BinaryInst(BinaryOpCode.ADD, zero, c);
-            newInst.setName("gvn_c" + c.getValue());
-        }
+        return false;
+    }
 
-        // 插入并返回
-        list.add(idx, newInst);
-        newInst.setParent(block);
-        return newInst;
+    /**
+     * 从支配者 idom 到 block 的所有路径上的块 (不含 idom，循环头会包含循环体及其自身)：
+     * 其中的 store 与可能写内存的调用使对应地址失效
+     */
+    private static void killOnPaths(BasicBlock idom, BasicBlock block, Map<Value, Value> availableMemory) {
+        if (availableMemory.isEmpty()) return;
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<BasicBlock> stack = new ArrayDeque<>(block.getPrevBlocks());
+        while (!stack.isEmpty()) {
+            BasicBlock bb = stack.pop();
+            if (bb == idom || !visited.add(bb)) continue;
+            for (Instruction inst : bb.getInstructions()) {
+                if (inst instanceof StoreInst store) {
+                    availableMemory.keySet().removeIf(ptr -> AliasAnalysis.mayAlias(ptr, store.getPointer()));
+                } else if (inst instanceof CallInst call) {
+                    availableMemory.keySet().removeIf(ptr -> AliasAnalysis.getModRef(call, ptr).isMod());
+                }
+                if (availableMemory.isEmpty()) return;
+            }
+            stack.addAll(bb.getPrevBlocks());
+        }
     }
 
     // --- 综合化简逻辑 ---
@@ -144,6 +160,15 @@ public class GVN {
             // 2. 代数化简
             return simplifyAlgebraic(binary, lhs, rhs);
         }
+        // 3. 常量的类型转换
+        if (inst instanceof ZextInst zext && zext.getValueToCast() instanceof ConstInt c) {
+            return ConstInt.get((IntegerType) zext.getType(), c.getValue());
+        }
+        if (inst instanceof TruncInst trunc && trunc.getValueToCast() instanceof ConstInt c
+                && trunc.getType() instanceof IntegerType type) {
+            int mask = type.getBitWidth() == 1 ? 1 : type.getBitWidth() == 8 ? 0xFF : -1;
+            return ConstInt.get(type, c.getValue() & mask);
+        }
         return null;
     }
 
@@ -211,8 +236,18 @@ public class GVN {
         return null;
     }
 
-    // --- 哈希计算 (保持不变) ---
+    // --- 哈希计算 ---
     private static String getHash(Instruction inst) {
+        // 纯函数调用：相同实参的调用结果相同
+        if (inst instanceof CallInst call) {
+            if (call.getType() instanceof VoidType || !SideEffectAnalysis.isPure(call)) return null;
+            StringBuilder sb = new StringBuilder("CALL_");
+            sb.append(System.identityHashCode(call.getFunction())).append("_");
+            for (int i = 0; i < call.getNumArgs(); i++) {
+                sb.append(getUniqueId(call.getArg(i))).append("_");
+            }
+            return sb.toString();
+        }
         if (!(inst instanceof BinaryInst) && !(inst instanceof GepInst)) return null;
 
         StringBuilder sb = new StringBuilder();
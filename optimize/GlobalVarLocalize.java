@@ -0,0 +1,118 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.IntegerType;
+
+import java.util.*;
+
+/**
+ * 全局变量本地化
+ * 只被一个函数读写的 int 标量全局变量，如果该函数在整个程序中只执行一次
+ * (main，或只在 main 的非循环位置被调用一次的函数)，就改为入口块的 alloca，
+ * 并在入口处写入初始值，之后由 Mem2Reg 提升为寄存器。
+ * 必须在第一次 Mem2Reg 之前运行 (此时 CFG 尚未建立，直接从终结指令取后继)。
+ */
+public class GlobalVarLocalize {
+
+    public static void run(Module module) {
+        Function main = null;
+        for (Function function : module.getFunctions()) {
+            if (function.getName().equals("main") || function.getName().equals("@main")) main = function;
+        }
+        if (main == null) return;
+
+        // 1. 统计每个函数的调用点
+        Map<Function, List<CallInst>> callSites = new HashMap<>();
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            for (BasicBlock bb : function.getBasicBlocks()) {
+                for (Instruction inst : bb.getInstructions()) {
+                    if (inst instanceof CallInst call) {
+                        callSites.computeIfAbsent(call.getFunction(), k -> new ArrayList<>()).add(call);
+                    }
+                }
+            }
+        }
+
+        // 2. 逐个检查全局变量
+        Iterator<GlobalVar> it = module.getGlobalVars().iterator();
+        while (it.hasNext()) {
+            GlobalVar gv = it.next();
+            if (gv.getPointeeType() != IntegerType.get32()) continue;
+            Function owner = getOnlyUser(gv);
+            if (owner == null || !runsOnce(owner, main, callSites)) continue;
+            localize(gv, owner);
+            it.remove();
+        }
+    }
+
+    /**
+     * 全局变量的所有使用都是同一函数中的 load/store (作为 store 的地址)，返回该函数
+     */
+    private static Function getOnlyUser(GlobalVar gv) {
+        Function owner = null;
+        for (Use use : gv.getUseList()) {
+            User user = use.getUser();
+            boolean isAccess = user instanceof LoadInst
+                    || (user instanceof StoreInst store && store.getPointer() == gv && store.getValue() != gv);
+            if (!isAccess) return null;
+            Function func = ((Instruction) user).getParent().getParent();
+            if (owner != null && owner != func) return null;
+            owner = func;
+        }
+        return owner;
+    }
+
+    /**
+     * 函数在程序运行中恰好执行一次
+     */
+    private static boolean runsOnce(Function function, Function main, Map<Function, List<CallInst>> callSites) {
+        List<CallInst> sites = callSites.getOrDefault(function, List.of());
+        if (function == main) return sites.isEmpty();
+        if (sites.size() != 1 || callSites.containsKey(main)) return false;
+        BasicBlock callBlock = sites.get(0).getParent();
+        return callBlock.getParent() == main && !isInCycle(callBlock);
+    }
+
+    private static boolean isInCycle(BasicBlock start) {
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<BasicBlock> stack = new ArrayDeque<>(getSuccessors(start));
+        while (!stack.isEmpty()) {
+            BasicBlock bb = stack.pop();
+            if (bb == start) return true;
+            if (visited.add(bb)) stack.addAll(getSuccessors(bb));
+        }
+        return false;
+    }
+
+    private static List<BasicBlock> getSuccessors(BasicBlock bb) {
+        // 前端可能在终结指令之后留下不可达的指令，以第一条终结指令为准
+        List<BasicBlock> succs = new ArrayList<>();
+        for (Instruction inst : bb.getInstructions()) {
+            if (!(inst instanceof TerminatorInst)) continue;
+            if (inst instanceof BrInst br) {
+                succs.add((BasicBlock) br.getTrueDest());
+                if (br.isConditional()) succs.add((BasicBlock) br.getFalseDest());
+            }
+            break;
+        }
+        return succs;
+    }
+
+    private static void localize(GlobalVar gv, Function function) {
+        BasicBlock entry = function.getEntryBlock();
+        AllocInst alloc = new AllocInst("%" + gv.getName().replace("@", "") + "_local", gv.getPointeeType());
+        entry.addInstruction(alloc);
+
+        Constant init = gv.getInitializer() != null ? gv.getInitializer() : ConstInt.get(IntegerType.get32(), 0);
+        StoreInst store = new StoreInst(init, alloc);
+        entry.getInstructions().add(entry.getInstructions().indexOf(alloc) + 1, store);
+        store.setParent(entry);
+
+        for (Use use : new ArrayList<>(gv.getUseList())) {
+            use.getUser().setOperand(use.getIndex(), alloc);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.IntegerType;
+
+import java.util.*;
+
+/**
+ * 指令合并 (InstCombine)
+ * 对 Binary / 比较 / Zext / Trunc 按规则表做局部改写，直到工作表为空：
+ * 1. 规范化：常量放到右边 (比较同时交换谓词)，x - c 改为 x + (-c)；
+ * 2. 常量重结合：(x + c1) + c2 -> x + (c1 + c2)，(x * c1) * c2 -> x * (c1 * c2)；
+ * 3. 取负折叠：0 - (0 - x) -> x，a + (0 - b) -> a - b，a - (0 - b) -> a + b；
+ * 4. 比较：(a - b) == 0 -> a == b，(x + c1) == c2 -> x == c2 - c1，x == x -> true；
+ * 5. 布尔：zext(cmp) != 0 -> cmp，zext(cmp) == 0 -> !cmp，cmp == 0 -> !cmp；
+ * 6. 恒等式：x + 0、x * 1、x / 1、x % 1、x * 0、(x + y) - y 等。
+ * 改写后的指令及其使用者重新进入工作表；不再使用的旧指令留给 DCE。
+ * 只对 == / != 做移项，< 等有符号比较在溢出时不等价。
+ */
+public class InstCombine {
+    private static int tempCounter = 0;
+
+    private static final Deque<Instruction> worklist = new ArrayDeque<>();
+    private static final Set<Instruction> inWorklist = new HashSet<>();
+
+    public static void run(Module module) {
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            for (BasicBlock bb : function.getBasicBlocks()) {
+                for (Instruction inst : bb.getInstructions()) push(inst);
+            }
+            while (!worklist.isEmpty()) {
+                Instruction inst = worklist.poll();
+                inWorklist.remove(inst);
+                if (inst.getParent() == null) continue;
+                Value result = combine(inst);
+                if (result == null || result == inst) continue;
+                replace(inst, result);
+            }
+        }
+    }
+
+    private static void push(Instruction inst) {
+        if (!(inst instanceof BinaryInst || inst instanceof ZextInst || inst instanceof TruncInst)) return;
+        if (inWorklist.add(inst)) worklist.add(inst);
+    }
+
+    private static void replace(Instruction inst, Value result) {
+        for (User user : inst.getUsers()) {
+            if (user instanceof Instruction userInst) push(userInst);
+        }
+        inst.replaceAllUsesWith(result);
+        inst.removeOperands();
+        inst.getParent().getInstructions().remove(inst);
+        inst.setParent(null);
+    }
+
+    /**
+     * @return 替换 inst 的值，null 表示没有可用的规则
+     */
+    private static Value combine(Instruction inst) {
+        if (inst instanceof ZextInst zext) {
+            if (zext.getValueToCast() instanceof ConstInt c) return ConstInt.get((IntegerType) zext.getType(), c.getValue());
+            return null;
+        }
+        if (inst instanceof TruncInst trunc) {
+            // trunc(zext x) 截回原类型
+            if (trunc.getValueToCast() instanceof ZextInst zext && zext.getValueToCast().getType() == trunc.getType()) {
+                return zext.getValueToCast();
+            }
+            return null;
+        }
+        BinaryInst bin = (BinaryInst) inst;
+        Value lhs = bin.getOp1();
+        Value rhs = bin.getOp2();
+        BinaryOpCode op = bin.getOpCode();
+
+        if (lhs instanceof ConstInt c1 && rhs instanceof ConstInt c2) {
+            Integer folded = fold(op, c1.getValue(), c2.getValue());
+            return folded == null ? null : ConstInt.get((IntegerType) bin.getType(), folded);
+        }
+        // 常量放到右边
+        if (lhs instanceof ConstInt && !(rhs instanceof ConstInt) && op != BinaryOpCode.SUB
+                && op != BinaryOpCode.SDIV && op != BinaryOpCode.SREM) {
+            return insert(bin, swapped(op), rhs, lhs);
+        }
+        if (op.isCompare()) return combineCompare(bin, op, lhs, rhs);
+        return switch (op) {
+            case ADD -> combineAdd(bin, lhs, rhs);
+            case SUB -> combineSub(bin, lhs, rhs);
+            case MUL -> combineMul(bin, lhs, rhs);
+            case SDIV -> {
+                if (isConst(rhs, 1)) yield lhs;
+                if (isConst(rhs, -1)) yield insert(bin, BinaryOpCode.SUB, zero(), lhs);
+                yield null;
+            }
+            case SREM -> isConst(rhs, 1) || isConst(rhs, -1) ? zero() : null;
+            default -> null;
+        };
+    }
+
+    private static Value combineAdd(BinaryInst bin, Value lhs, Value rhs) {
+        if (isConst(rhs, 0)) return lhs;
+        if (rhs instanceof ConstInt c2 && lhs instanceof BinaryInst inner) {
+            // (x + c1) + c2 -> x + (c1 + c2)
+            if (inner.getOpCode() == BinaryOpCode.ADD && inner.getOp2() instanceof ConstInt c1) {
+                return insert(bin, BinaryOpCode.ADD, inner.getOp1(), constant(c1.getValue() + c2.getValue()));
+            }
+            // (c1 - x) + c2 -> (c1 + c2) - x
+            if (inner.getOpCode() == BinaryOpCode.SUB && inner.getOp1() instanceof ConstInt c1) {
+                return insert(bin, BinaryOpCode.SUB, constant(c1.getValue() + c2.getValue()), inner.getOp2());
+            }
+        }
+        // a + (0 - b) -> a - b，(0 - a) + b -> b - a
+        if (isNegation(rhs)) return insert(bin, BinaryOpCode.SUB, lhs, ((BinaryInst) rhs).getOp2());
+        if (isNegation(lhs)) return insert(bin, BinaryOpCode.SUB, rhs, ((BinaryInst) lhs).getOp2());
+        // (a - b) + b -> a
+        if (lhs instanceof BinaryInst inner && inner.getOpCode() == BinaryOpCode.SUB && inner.getOp2() == rhs) {
+            return inner.getOp1();
+        }
+        if (rhs instanceof BinaryInst inner && inner.getOpCode() == BinaryOpCode.SUB && inner.getOp2() == lhs) {
+            return inner.getOp1();
+        }
+        return null;
+    }
+
+    private static Value combineSub(BinaryInst bin, Value lhs, Value rhs) {
+        if (isConst(rhs, 0)) return lhs;
+        if (lhs == rhs) return zero();
+        // x - c -> x + (-c)，之后可以和其他加法常量合并
+        if (rhs instanceof ConstInt c) return insert(bin, BinaryOpCode.ADD, lhs, constant(-c.getValue()));
+        // a - (0 - b) -> a + b，0 - (0 - x) -> x
+        if (isNegation(rhs)) {
+            Value b = ((BinaryInst) rhs).getOp2();
+            return isConst(lhs, 0) ? b : insert(bin, BinaryOpCode.ADD, lhs, b);
+        }
+        // 0 - (a - b) -> b - a
+        if (isConst(lhs, 0) && rhs instanceof BinaryInst inner && inner.getOpCode() == BinaryOpCode.SUB) {
+            return insert(bin, BinaryOpCode.SUB, inner.getOp2(), inner.getOp1());
+        }
+        if (lhs instanceof BinaryInst inner && inner.getOpCode() == BinaryOpCode.ADD) {
+            // (x + y) - y -> x，(x + y) - x -> y
+            if (inner.getOp2() == rhs) return inner.getOp1();
+            if (inner.getOp1() == rhs) return inner.getOp2();
+            // (x + c) - y -> (x - y) + c，把常量留在最外层以便继续合并
+            if (inner.getOp2() instanceof ConstInt c && hasOneUse(inner)) {
+                BinaryInst diff = insert(bin, BinaryOpCode.SUB, inner.getOp1(), rhs);
+                return insert(bin, BinaryOpCode.ADD, diff, c);
+            }
+        }
+        // c1 - (x + c2) -> (c1 - c2) - x
+        if (lhs instanceof ConstInt c1 && rhs instanceof BinaryInst inner && inner.getOpCode() == BinaryOpCode.ADD
+                && inner.getOp2() instanceof ConstInt c2) {
+            return insert(bin, BinaryOpCode.SUB, constant(c1.getValue() - c2.getValue()), inner.getOp1());
+        }
+        // x - (x - y) -> y
+        if (rhs instanceof BinaryInst inner && inner.getOpCode() == BinaryOpCode.SUB && inner.getOp1() == lhs) {
+            return inner.getOp2();
+        }
+        return null;
+    }
+
+    private static Value combineMul(BinaryInst bin, Value lhs, Value rhs) {
+        if (isConst(rhs, 1)) return lhs;
+        if (isConst(rhs, 0)) return zero();
+        if (isConst(rhs, -1)) return insert(bin, BinaryOpCode.SUB, zero(), lhs);
+        if (rhs instanceof ConstInt c2 && lhs instanceof BinaryInst inner
+                && inner.getOpCode() == BinaryOpCode.MUL && inner.getOp2() instanceof ConstInt c1) {
+            // (x * c1) * c2 -> x * (c1 * c2)
+            return insert(bin, BinaryOpCode.MUL, inner.getOp1(), constant(c1.getValue() * c2.getValue()));
+        }
+        // (0 - a) * (0 - b) -> a * b
+        if (isNegation(lhs) && isNegation(rhs)) {
+            return insert(bin, BinaryOpCode.MUL, ((BinaryInst) lhs).getOp2(), ((BinaryInst) rhs).getOp2());
+        }
+        return null;
+    }
+
+    private static Value combineCompare(BinaryInst bin, BinaryOpCode op, Value lhs, Value rhs) {
+        if (lhs == rhs) {
+            return bool(op == BinaryOpCode.EQ || op == BinaryOpCode.SGE || op == BinaryOpCode.SLE);
+        }
+        if (op != BinaryOpCode.EQ && op != BinaryOpCode.NE) return null;
+        boolean isEq = op == BinaryOpCode.EQ;
+
+        if (rhs instanceof ConstInt c) {
+            // 布尔值与 0 / 1 比较
+            Value bool = lhs instanceof ZextInst zext && zext.getValueToCast().getType() == IntegerType.get1()
+                    ? zext.getValueToCast()
+                    : lhs.getType() == IntegerType.get1() ? lhs : null;
+            if (bool != null && (c.getValue() == 0 || c.getValue() == 1)) {
+                // != 0 与 == 1 保持原值，== 0 与 != 1 取反
+                boolean keep = isEq == (c.getValue() == 1);
+                if (keep) return bool;
+                if (bool instanceof BinaryInst cmp && cmp.getOpCode().isCompare()) {
+                    return insert(bin, inverse(cmp.getOpCode()), cmp.getOp1(), cmp.getOp2());
+                }
+                if (bool instanceof ConstInt b) return bool(b.getValue() == 0);
+                return null;
+            }
+            if (lhs instanceof BinaryInst inner && inner.getOp2() instanceof ConstInt c1) {
+                // (x + c1) == c2 -> x == c2 - c1
+                if (inner.getOpCode() == BinaryOpCode.ADD) {
+                    return insert(bin, op, inner.getOp1(), constant(c.getValue() - c1.getValue()));
+                }
+                // (x * c1) == 0 -> x == 0 (c1 为奇数时乘法可逆)
+                if (inner.getOpCode() == BinaryOpCode.MUL && c.getValue() == 0 && (c1.getValue() & 1) == 1) {
+                    return insert(bin, op, inner.getOp1(), zero());
+                }
+            }
+            // (a - b) == 0 -> a == b
+            if (c.getValue() == 0 && lhs instanceof BinaryInst inner && inner.getOpCode() == BinaryOpCode.SUB) {
+                return insert(bin, op, inner.getOp1(), inner.getOp2());
+            }
+            // (0 - x) == c -> x == -c
+            if (isNegation(lhs)) {
+                return insert(bin, op, ((BinaryInst) lhs).getOp2(), constant(-c.getValue()));
+            }
+        }
+        // (x + y) == x -> y == 0
+        if (lhs instanceof BinaryInst inner && inner.getOpCode() == BinaryOpCode.ADD) {
+            if (inner.getOp1() == rhs) return insert(bin, op, inner.getOp2(), zero());
+            if (inner.getOp2() == rhs) return insert(bin, op, inner.getOp1(), zero());
+        }
+        return null;
+    }
+
+    // --- 工具 ---
+
+    /**
+     * 在 before 之前插入新的二元运算；它也进入工作表，两个操作数都是常量时会被折叠
+     */
+    private static BinaryInst insert(BinaryInst before, BinaryOpCode op, Value lhs, Value rhs) {
+        BinaryInst inst = new BinaryInst(op, lhs, rhs);
+        inst.setName("%ic_" + (tempCounter++));
+        BasicBlock bb = before.getParent();
+        bb.getInstructions().add(bb.getInstructions().indexOf(before), inst);
+        inst.setParent(bb);
+        push(inst);
+        return inst;
+    }
+
+    private static Integer fold(BinaryOpCode op, int v1, int v2) {
+        return switch (op) {
+            case ADD -> v1 + v2;
+            case SUB -> v1 - v2;
+            case MUL -> v1 * v2;
+            case SDIV -> v2 == 0 ? null : v1 / v2;
+            case SREM -> v2 == 0 ? null : v1 % v2;
+            case EQ -> v1 == v2 ? 1 : 0;
+            case NE -> v1 != v2 ? 1 : 0;
+            case SGT -> v1 > v2 ? 1 : 0;
+            case SGE -> v1 >= v2 ? 1 : 0;
+            case SLT -> v1 < v2 ? 1 : 0;
+            case SLE -> v1 <= v2 ? 1 : 0;
+        };
+    }
+
+    /**
+     * a op b 等价于 b swapped(op) a
+     */
+    private static BinaryOpCode swapped(BinaryOpCode op) {
+        return switch (op) {
+            case SGT -> BinaryOpCode.SLT;
+            case SGE -> BinaryOpCode.SLE;
+            case SLT -> BinaryOpCode.SGT;
+            case SLE -> BinaryOpCode.SGE;
+            default -> op;
+        };
+    }
+
+    /**
+     * 取反后的比较
+     */
+    private static BinaryOpCode inverse(BinaryOpCode op) {
+        return switch (op) {
+            case EQ -> BinaryOpCode.NE;
+            case NE -> BinaryOpCode.EQ;
+            case SGT -> BinaryOpCode.SLE;
+            case SGE -> BinaryOpCode.SLT;
+            case SLT -> BinaryOpCode.SGE;
+            case SLE -> BinaryOpCode.SGT;
+            default -> throw new IllegalArgumentException("not a compare: " + op);
+        };
+    }
+
+    private static boolean isNegation(Value v) {
+        return v instanceof BinaryInst bin && bin.getOpCode() == BinaryOpCode.SUB && isConst(bin.getOp1(), 0);
+    }
+
+    private static boolean hasOneUse(Value v) {
+        return v.getUseList().size() == 1;
+    }
+
+    private static boolean isConst(Value v, int value) {
+        return v instanceof ConstInt c && c.getValue() == value;
+    }
+
+    private static ConstInt constant(int value) {
+        return ConstInt.get(IntegerType.get32(), value);
+    }
+
+    private static ConstInt zero() {
+        return constant(0);
+    }
+
+    private static ConstInt bool(boolean value) {
+        return ConstInt.get(IntegerType.get1(), value ? 1 : 0);
+    }
+}
@@ -0,0 +1,111 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.IntegerType;
+import optimize.analysis.AliasAnalysis;
+import optimize.analysis.LoopAnalysis;
+import optimize.analysis.LoopAnalysis.Loop;
+import optimize.analysis.SideEffectAnalysis;
+
+import java.util.*;
+
+/**
+ * 循环中全局标量的寄存器提升
+ * 循环内的调用都不会读写某个 int 全局变量时，在 preheader 中把它读入一个局部变量，
+ * 循环内的 load/store 改为访问该局部变量，循环中有写入时在每个出口块写回。
+ * 局部变量由随后的 Mem2Reg 提升为 SSA 值 (循环头的 Phi)。
+ * 要求循环有 preheader，且出口块只能从循环内进入。
+ */
+public class LoopScalarPromotion {
+    private static int tempCounter = 0;
+
+    public static void run(Module module) {
+        // 重建 CFG 与支配树
+        Mem2Reg.run(module, false);
+        SideEffectAnalysis.run(module);
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            // 由内到外：内层循环提升后留在 preheader/出口块中的访存，会在外层循环中继续被提升
+            for (Loop loop : LoopAnalysis.run(function)) {
+                runOnLoop(function, loop);
+            }
+        }
+    }
+
+    private static void runOnLoop(Function function, Loop loop) {
+        BasicBlock preheader = loop.getPreheader();
+        if (preheader == null || !loop.hasDedicatedExits()) return;
+        List<BasicBlock> exits = loop.getExitBlocks();
+
+        // 1. 收集循环内直接访问的全局标量
+        Map<GlobalVar, List<Instruction>> accesses = new LinkedHashMap<>();
+        List<CallInst> calls = new ArrayList<>();
+        for (BasicBlock bb : loop.getBlocks()) {
+            for (Instruction inst : bb.getInstructions()) {
+                if (inst instanceof LoadInst load && isScalarGlobal(load.getPointer())) {
+                    accesses.computeIfAbsent((GlobalVar) load.getPointer(), k -> new ArrayList<>()).add(load);
+                } else if (inst instanceof StoreInst store && isScalarGlobal(store.getPointer())) {
+                    accesses.computeIfAbsent((GlobalVar) store.getPointer(), k -> new ArrayList<>()).add(store);
+                } else if (inst instanceof CallInst call) {
+                    calls.add(call);
+                }
+            }
+        }
+
+        for (Map.Entry<GlobalVar, List<Instruction>> entry : accesses.entrySet()) {
+            GlobalVar gv = entry.getKey();
+            boolean touchedByCall = false;
+            for (CallInst call : calls) {
+                if (AliasAnalysis.getModRef(call, gv) != AliasAnalysis.ModRef.NO_MOD_REF) {
+                    touchedByCall = true;
+                    break;
+                }
+            }
+            if (touchedByCall) continue;
+            boolean hasStore = entry.getValue().stream().anyMatch(inst -> inst instanceof StoreInst);
+            // 没有出口的循环无法写回
+            if (hasStore && exits.isEmpty()) continue;
+            promote(function, gv, entry.getValue(), preheader, hasStore ? exits : List.of());
+        }
+    }
+
+    private static void promote(Function function, GlobalVar gv, List<Instruction> accesses,
+                                BasicBlock preheader, List<BasicBlock> exits) {
+        String baseName = gv.getName().replace("@", "");
+        AllocInst slot = new AllocInst("%" + baseName + "_promo" + (tempCounter++), IntegerType.get32());
+        function.getEntryBlock().addInstruction(slot);
+
+        // preheader：读入初值
+        LoadInst init = new LoadInst(newName(baseName), gv);
+        preheader.addInstruction(init);
+        preheader.addInstruction(new StoreInst(init, slot));
+
+        // 循环内的访问改为访问局部变量
+        for (Instruction inst : accesses) {
+            int index = inst instanceof LoadInst ? 0 : 1;
+            inst.setOperand(index, slot);
+        }
+
+        // 出口块：写回
+        for (BasicBlock exit : exits) {
+            LoadInst value = new LoadInst(newName(baseName), slot);
+            StoreInst writeBack = new StoreInst(value, gv);
+            int pos = 0;
+            while (pos < exit.getInstructions().size() && exit.getInstructions().get(pos) instanceof PhiInst) pos++;
+            exit.getInstructions().add(pos, value);
+            exit.getInstructions().add(pos + 1, writeBack);
+            value.setParent(exit);
+            writeBack.setParent(exit);
+        }
+    }
+
+    private static boolean isScalarGlobal(Value pointer) {
+        return pointer instanceof GlobalVar gv && gv.getPointeeType() == IntegerType.get32();
+    }
+
+    private static String newName(String baseName) {
+        return "%" + baseName + "_val" + (tempCounter++);
+    }
+}
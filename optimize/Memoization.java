@@ -0,0 +1,218 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.ArrayType;
+import middle.component.type.IntegerType;
+import middle.component.type.PointerType;
+import optimize.analysis.SideEffectAnalysis;
+
+import java.util.*;
+
+/**
+ * 自动记忆化
+ * 对纯的 int 递归函数 (只有 int 参数、不访问内存、不做 IO、只调用自身) 加上编译器生成的记忆表：
+ * 参数落在一个小范围内时直接映射到 .data 中的表项 (值表 + 标记表)，命中则直接返回，
+ * 未命中 (或参数超出范围) 时执行原函数体，返回前把结果写回表中。
+ * 代价模型：每次调用至少会再产生两次自身调用 (循环中的调用按两次计)，即朴素实现是指数复杂度的。
+ */
+public class Memoization {
+    // 记忆表的总项数上限 (两个参数时每维 32 项)
+    private static final int TABLE_SIZE = 1024;
+    private static final int TABLE_SIZE_2D = 32;
+
+    private static int tempCounter = 0;
+
+    public static void run(Module module) {
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            if (function.getName().equals("main") || function.getName().equals("@main")) continue;
+            if (isPureIntFunction(function) && estimateSelfCalls(function) >= 2) {
+                memoize(module, function);
+            }
+        }
+        // 重建 CFG (前驱/后继)
+        Mem2Reg.run(module, false);
+    }
+
+    // --- 分析 ---
+
+    private static boolean isPureIntFunction(Function function) {
+        if (function.getReturnType() != IntegerType.get32()) return false;
+        int numParams = function.getParams().size();
+        if (numParams < 1 || numParams > 2) return false;
+        for (FuncParam param : function.getParams()) {
+            if (param.getType() != IntegerType.get32()) return false;
+        }
+        for (BasicBlock bb : function.getBasicBlocks()) {
+            for (Instruction inst : bb.getInstructions()) {
+                if (inst instanceof CallInst call) {
+                    if (call.getFunction() != function) return false;
+                } else if (!(inst instanceof BinaryInst) && !(inst instanceof PhiInst)
+                        && !(inst instanceof BrInst) && !(inst instanceof RetInst)
+                        && !(inst instanceof ZextInst) && !(inst instanceof TruncInst)) {
+                    // 访存 (Load/Store/Gep/Alloc) 与 IO 都会让结果依赖调用之外的状态
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 估计一次调用产生的自身调用次数：循环中的调用点按两次计
+     */
+    private static int estimateSelfCalls(Function function) {
+        int count = 0;
+        for (BasicBlock bb : function.getBasicBlocks()) {
+            for (Instruction inst : bb.getInstructions()) {
+                if (inst instanceof CallInst call && call.getFunction() == function) {
+                    count += isInCycle(bb) ? 2 : 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean isInCycle(BasicBlock start) {
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<BasicBlock> stack = new ArrayDeque<>(start.getNextBlocks());
+        while (!stack.isEmpty()) {
+            BasicBlock bb = stack.pop();
+            if (bb == start) return true;
+            if (visited.add(bb)) stack.addAll(bb.getNextBlocks());
+        }
+        return false;
+    }
+
+    // --- 变换 ---
+
+    private static void memoize(Module module, Function function) {
+        String baseName = function.getName().replace("@", "");
+        List<FuncParam> params = function.getParams();
+        boolean twoParams = params.size() == 2;
+        int range = twoParams ? TABLE_SIZE_2D : TABLE_SIZE;
+
+        GlobalVar valTable = newTable(module, "@__memo_val_" + baseName);
+        GlobalVar flagTable = newTable(module, "@__memo_flag_" + baseName);
+
+        BasicBlock oldEntry = function.getEntryBlock();
+        List<RetInst> rets = new ArrayList<>();
+        for (BasicBlock bb : function.getBasicBlocks()) {
+            if (bb.getLastInstruction() instanceof RetInst ret) rets.add(ret);
+        }
+
+        ConstInt zero = ConstInt.get(IntegerType.get32(), 0);
+        ConstInt one = ConstInt.get(IntegerType.get32(), 1);
+
+        // 1. 范围检查：每个参数都满足 0 <= p < range，任一不满足直接执行原函数体
+        List<BasicBlock> checkBlocks = new ArrayList<>();
+        for (FuncParam param : params) {
+            BasicBlock lower = newBlock(function, "memo_check");
+            BasicBlock upper = newBlock(function, "memo_check");
+            checkBlocks.add(lower);
+            checkBlocks.add(upper);
+            lower.addInstruction(newBinary(BinaryOpCode.SGE, param, zero));
+            upper.addInstruction(newBinary(BinaryOpCode.SLT, param, ConstInt.get(IntegerType.get32(), range)));
+        }
+        BasicBlock lookup = newBlock(function, "memo_lookup");
+        BasicBlock hit = newBlock(function, "memo_hit");
+        BasicBlock body = newBlock(function, "memo_body");
+        BasicBlock exit = newBlock(function, "memo_exit");
+        BasicBlock store = newBlock(function, "memo_store");
+        BasicBlock ret = newBlock(function, "memo_ret");
+
+        // 新入口放在最前面，其余新块放在原函数体之后
+        function.getBasicBlocks().remove(checkBlocks.get(0));
+        function.getBasicBlocks().addFirst(checkBlocks.get(0));
+
+        for (int i = 0; i < checkBlocks.size(); i++) {
+            BasicBlock bb = checkBlocks.get(i);
+            BasicBlock next = i + 1 < checkBlocks.size() ? checkBlocks.get(i + 1) : lookup;
+            bb.addInstruction(new BrInst(bb.getLastInstruction(), next, body));
+        }
+
+        // 2. 查表：idx = p0 (* range + p1)
+        Value index = params.get(0);
+        if (twoParams) {
+            BinaryInst scaled = newBinary(BinaryOpCode.MUL, params.get(0), ConstInt.get(IntegerType.get32(), range));
+            lookup.addInstruction(scaled);
+            index = newBinary(BinaryOpCode.ADD, scaled, params.get(1));
+            lookup.addInstruction((Instruction) index);
+        }
+        GepInst flagPtr = newGep(flagTable, index);
+        lookup.addInstruction(flagPtr);
+        LoadInst flag = new LoadInst(newName(), flagPtr);
+        lookup.addInstruction(flag);
+        BinaryInst isHit = newBinary(BinaryOpCode.NE, flag, zero);
+        lookup.addInstruction(isHit);
+        lookup.addInstruction(new BrInst(isHit, hit, body));
+
+        GepInst hitPtr = newGep(valTable, index);
+        hit.addInstruction(hitPtr);
+        LoadInst cached = new LoadInst(newName(), hitPtr);
+        hit.addInstruction(cached);
+        hit.addInstruction(new RetInst(cached));
+
+        // 3. 原函数体入口：slot 为表项下标，-1 表示不写回
+        PhiInst slot = new PhiInst(IntegerType.get32(), body, new ArrayList<>());
+        for (BasicBlock bb : checkBlocks) {
+            slot.addIncoming(ConstInt.get(IntegerType.get32(), -1), bb);
+        }
+        slot.addIncoming(index, lookup);
+        body.addInstruction(slot);
+        body.addInstruction(new BrInst(oldEntry));
+
+        // 4. 原来的返回点汇合到 memo_exit，写回后再返回
+        PhiInst result = new PhiInst(IntegerType.get32(), exit, new ArrayList<>());
+        for (RetInst oldRet : rets) {
+            BasicBlock bb = oldRet.getParent();
+            result.addIncoming(oldRet.getReturnValue(), bb);
+            oldRet.remove();
+            bb.addInstruction(new BrInst(exit));
+        }
+        exit.addInstruction(result);
+        BinaryInst needStore = newBinary(BinaryOpCode.SGE, slot, zero);
+        exit.addInstruction(needStore);
+        exit.addInstruction(new BrInst(needStore, store, ret));
+
+        GepInst valPtr = newGep(valTable, slot);
+        store.addInstruction(valPtr);
+        store.addInstruction(new StoreInst(result, valPtr));
+        GepInst flagPtr2 = newGep(flagTable, slot);
+        store.addInstruction(flagPtr2);
+        store.addInstruction(new StoreInst(one, flagPtr2));
+        store.addInstruction(new BrInst(ret));
+
+        ret.addInstruction(new RetInst(result));
+    }
+
+    private static GlobalVar newTable(Module module, String name) {
+        ArrayType type = ArrayType.get(IntegerType.get32(), TABLE_SIZE);
+        GlobalVar table = new GlobalVar(name, PointerType.get(type), null, false);
+        module.addGlobalVar(table);
+        // 记忆表只是缓存，读写它不影响函数的纯度
+        SideEffectAnalysis.addCacheTable(table);
+        return table;
+    }
+
+    private static BasicBlock newBlock(Function function, String name) {
+        return new BasicBlock(name + (tempCounter++), function);
+    }
+
+    private static String newName() {
+        return "%memo_" + (tempCounter++);
+    }
+
+    private static BinaryInst newBinary(BinaryOpCode op, Value lhs, Value rhs) {
+        BinaryInst inst = new BinaryInst(op, lhs, rhs);
+        inst.setName(newName());
+        return inst;
+    }
+
+    private static GepInst newGep(GlobalVar table, Value index) {
+        ArrayList<Value> indices = new ArrayList<>(List.of(ConstInt.get(IntegerType.get32(), 0), index));
+        return new GepInst(newName(), table, indices);
+    }
+}
@@ -0,0 +1,197 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import optimize.analysis.LoopAnalysis;
+
+import java.util.*;
+
+/**
+ * 乐观的全局值编号 (RPO 迭代，Simpson)
+ * 与 GVN 的支配树哈希不同，这里先乐观地假设所有值都还未定 (TOP)，按逆后序反复给指令编号直到不变：
+ * 1. 每一轮使用新的哈希表，表达式的键由操作数的值编号组成，键相同的指令属于同一个等价类；
+ * 2. Phi 的键为 (所在块, 各入口值的编号)，回边上尚未编号的入口值按 TOP 处理，
+ *    所有已定入口值的编号相同时，Phi 与该值等价；
+ * 3. 因此初值和步长相同的两个归纳变量会落入同一个等价类，这是一遍扫描的 GVN 做不到的。
+ * 收敛后，每条指令替换为它所在等价类的代表元，只在代表元支配该指令时替换。
+ * 访存与调用不参与编号 (由 GVN 处理)。
+ */
+public class NewGVN {
+    private static final String TOP = "T";
+    private static final int MAX_ITERATIONS = 20;
+
+    // 值 -> 所在等价类的代表元，不在表中表示 TOP
+    private static final Map<Value, Value> valueNumber = new HashMap<>();
+    // 值 -> 用于拼接键的编号
+    private static final Map<Value, Integer> ids = new HashMap<>();
+
+    public static void run(Module module) {
+        // 逆后序与支配关系
+        Mem2Reg.run(module, false);
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            valueNumber.clear();
+            ids.clear();
+            List<Instruction> order = new ArrayList<>();
+            for (BasicBlock bb : computeRPO(function)) order.addAll(bb.getInstructions());
+            if (solve(order)) replace(order);
+        }
+    }
+
+    /**
+     * @return 是否在迭代上限内收敛；未收敛时编号里可能还留有未被推翻的乐观假设，不能使用
+     */
+    private static boolean solve(List<Instruction> order) {
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            boolean changed = false;
+            Map<String, Value> table = new HashMap<>();
+            for (Instruction inst : order) {
+                Value number = inst instanceof PhiInst phi ? getUniqueIncoming(phi) : null;
+                if (number == null) {
+                    number = inst;
+                    String key = getKey(inst);
+                    if (key != null) {
+                        Value leader = table.putIfAbsent(key, inst);
+                        if (leader != null) number = leader;
+                    }
+                }
+                if (valueNumber.get(inst) != number) {
+                    valueNumber.put(inst, number);
+                    changed = true;
+                }
+            }
+            if (!changed) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 所有已定入口值的编号都相同时返回该编号
+     */
+    private static Value getUniqueIncoming(PhiInst phi) {
+        Value same = null;
+        for (int i = 0; i < phi.getNumIncoming(); i++) {
+            Value v = phi.getIncomingValue(i);
+            if (v == phi) continue;
+            Value number = getNumber(v);
+            if (number == null) continue;
+            if (same != null && same != number) return null;
+            same = number;
+        }
+        return same;
+    }
+
+    private static String getKey(Instruction inst) {
+        StringBuilder sb = new StringBuilder();
+        if (inst instanceof BinaryInst bin) {
+            String lhs = idOf(bin.getOp1());
+            String rhs = idOf(bin.getOp2());
+            if (isCommutative(bin.getOpCode()) && lhs.compareTo(rhs) > 0) {
+                String t = lhs;
+                lhs = rhs;
+                rhs = t;
+            }
+            return sb.append(bin.getOpCode().name()).append('_').append(bin.getType())
+                    .append('_').append(lhs).append('_').append(rhs).toString();
+        }
+        if (inst instanceof ZextInst || inst instanceof TruncInst) {
+            return sb.append(inst.getClass().getSimpleName()).append('_').append(inst.getType())
+                    .append('_').append(idOf(inst.getOperand(0))).toString();
+        }
+        if (inst instanceof GepInst gep) {
+            sb.append("GEP_").append(gep.getType());
+            for (int i = 0; i < gep.getNumOperands(); i++) sb.append('_').append(idOf(gep.getOperand(i)));
+            return sb.toString();
+        }
+        if (inst instanceof PhiInst phi) {
+            // 同一个块中按前驱对应的入口值比较
+            sb.append("PHI_").append(idOf(phi.getParent())).append('_').append(phi.getType());
+            Map<Integer, String> incoming = new TreeMap<>();
+            for (int i = 0; i < phi.getNumIncoming(); i++) {
+                incoming.put(ids.computeIfAbsent(phi.getIncomingBlock(i), k -> ids.size()),
+                        idOf(phi.getIncomingValue(i)));
+            }
+            incoming.forEach((block, value) -> sb.append('_').append(block).append(':').append(value));
+            return sb.toString();
+        }
+        return null;
+    }
+
+    /**
+     * 值编号对应的键片段；常量按值，TOP 单独一类
+     */
+    private static String idOf(Value v) {
+        Value number = getNumber(v);
+        if (number == null) return TOP;
+        if (number instanceof ConstInt c) return "C" + c.getType() + ":" + c.getValue();
+        return "V" + ids.computeIfAbsent(number, k -> ids.size());
+    }
+
+    /**
+     * 常量、参数、全局变量等的编号是它自己；尚未编号的指令返回 null (TOP)
+     */
+    private static Value getNumber(Value v) {
+        if (v instanceof Instruction) return valueNumber.get(v);
+        return v;
+    }
+
+    private static boolean isCommutative(BinaryOpCode op) {
+        return op == BinaryOpCode.ADD || op == BinaryOpCode.MUL || op == BinaryOpCode.EQ || op == BinaryOpCode.NE;
+    }
+
+    // --- 替换 ---
+
+    private static void replace(List<Instruction> order) {
+        for (Instruction inst : order) {
+            if (inst.getParent() == null) continue;
+            Value leader = valueNumber.get(inst);
+            if (leader == null || leader == inst || !dominates(leader, inst)) continue;
+            if (!leader.getType().toString().equals(inst.getType().toString())) continue;
+            inst.replaceAllUsesWith(leader);
+            inst.removeOperands();
+            inst.getParent().getInstructions().remove(inst);
+            inst.setParent(null);
+        }
+    }
+
+    /**
+     * leader 的定义是否支配 inst (同一块中的 Phi 视为同时定义)
+     */
+    private static boolean dominates(Value leader, Instruction inst) {
+        if (!(leader instanceof Instruction def)) return true;
+        if (def.getParent() == null) return false;
+        BasicBlock defBlock = def.getParent();
+        BasicBlock useBlock = inst.getParent();
+        if (defBlock != useBlock) return LoopAnalysis.dominates(defBlock, useBlock);
+        if (def instanceof PhiInst && inst instanceof PhiInst) return true;
+        List<Instruction> insts = defBlock.getInstructions();
+        return insts.indexOf(def) < insts.indexOf(inst);
+    }
+
+    private static List<BasicBlock> computeRPO(Function function) {
+        List<BasicBlock> postOrder = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<Iterator<BasicBlock>> stack = new ArrayDeque<>();
+        Deque<BasicBlock> path = new ArrayDeque<>();
+        BasicBlock entry = function.getEntryBlock();
+        visited.add(entry);
+        stack.push(entry.getNextBlocks().iterator());
+        path.push(entry);
+        while (!stack.isEmpty()) {
+            Iterator<BasicBlock> it = stack.peek();
+            if (it.hasNext()) {
+                BasicBlock succ = it.next();
+                if (visited.add(succ)) {
+                    stack.push(succ.getNextBlocks().iterator());
+                    path.push(succ);
+                }
+            } else {
+                stack.pop();
+                postOrder.add(path.pop());
+            }
+        }
+        Collections.reverse(postOrder);
+        return postOrder;
+    }
+}
@@ -0,0 +1,188 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import optimize.analysis.LoopAnalysis;
+
+import java.util.*;
+
+/**
+ * 部分冗余消除 (PRE，按汇合块做 SSA 上的 Lazy Code Motion)
+ * 对汇合块 M 中的算术指令 e = a op b：
+ * 1. 把操作数按前驱翻译 (M 中的 Phi 取对应入口值，其余操作数必须支配 M)；
+ * 2. 某个前驱出口处已经有等价的计算 (它所在的块支配该前驱，且不在 M 之后) 时，e 部分冗余；
+ * 3. 在缺少计算的入边上插入一份 (前驱有多个后继时先拆分关键边)，用 M 中的新 Phi 代替 e。
+ * 插入只发生在进入 M 的边上，这些路径随后一定执行 e，所以不会在任何路径上多算，
+ * 也不会投机地执行原本不执行的 sdiv/srem。插入的指令仍由之后的 GCM 决定最终位置 (sdiv/srem 不被移动)。
+ * 比较不参与 (保留与分支的融合)，访存由 GVN 处理。
+ */
+public class PRE {
+    private static final int MAX_ROUNDS = 10;
+    private static int tempCounter = 0;
+
+    public static void run(Module module) {
+        // 拆分关键边后支配树失效，重新计算后再继续
+        boolean changed = true;
+        for (int round = 0; round < MAX_ROUNDS && changed; round++) {
+            changed = false;
+            Mem2Reg.run(module, false);
+            for (Function function : module.getFunctions()) {
+                if (function.isDeclaration()) continue;
+                changed |= runOnFunction(function);
+            }
+        }
+    }
+
+    /**
+     * @return 是否拆分了关键边 (需要重新计算支配树)
+     */
+    private static boolean runOnFunction(Function function) {
+        Set<BasicBlock> reachable = reachableBlocks(function);
+        for (BasicBlock merge : new ArrayList<>(function.getBasicBlocks())) {
+            List<BasicBlock> preds = new ArrayList<>(merge.getPrevBlocks());
+            if (preds.size() < 2 || !reachable.containsAll(preds)) continue;
+            for (Instruction inst : new ArrayList<>(merge.getInstructions())) {
+                if (inst instanceof BinaryInst bin && isCandidate(bin) && eliminate(bin, preds)) {
+                    if (!merge.getPrevBlocks().equals(preds)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCandidate(BinaryInst bin) {
+        return switch (bin.getOpCode()) {
+            case ADD, SUB, MUL, SDIV, SREM -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean eliminate(BinaryInst inst, List<BasicBlock> preds) {
+        BasicBlock merge = inst.getParent();
+        // 1. 各前驱上翻译后的操作数，以及已有的等价计算
+        Value[][] operands = new Value[preds.size()][];
+        Value[] available = new Value[preds.size()];
+        int availableCount = 0;
+        for (int i = 0; i < preds.size(); i++) {
+            operands[i] = new Value[2];
+            for (int k = 0; k < 2; k++) {
+                operands[i][k] = translate(inst.getOperand(k), merge, preds.get(i));
+                if (operands[i][k] == null) return false;
+            }
+            // 两个常量的计算交给 SCCP 折叠，这里不插入
+            if (operands[i][0] instanceof ConstInt && operands[i][1] instanceof ConstInt) return false;
+            available[i] = findAvailable(inst, operands[i], preds.get(i), merge);
+            if (available[i] != null) availableCount++;
+        }
+        if (availableCount == 0) return false;
+
+        // 各前驱上是同一个值：它支配所有前驱，也就支配 M，e 是完全冗余的
+        if (Arrays.stream(available).allMatch(v -> v == available[0])) {
+            replace(inst, available[0]);
+            return true;
+        }
+
+        // 2. 在缺少计算的入边上插入
+        PhiInst phi = new PhiInst(inst.getType(), merge, preds);
+        for (int i = 0; i < preds.size(); i++) {
+            BasicBlock incoming = preds.get(i);
+            Value value = available[i];
+            if (value == null) {
+                if (incoming.getNextBlocks().size() > 1) incoming = splitEdge(incoming, merge);
+                BinaryInst copy = new BinaryInst(inst.getOpCode(), operands[i][0], operands[i][1]);
+                copy.setName("%pre_" + (tempCounter++));
+                incoming.addInstruction(copy);
+                value = copy;
+            }
+            phi.addIncoming(value, incoming);
+        }
+        merge.addInstruction(phi);
+        replace(inst, phi);
+        return true;
+    }
+
+    /**
+     * 操作数在前驱 pred 出口处对应的值；不能翻译时返回 null
+     */
+    private static Value translate(Value v, BasicBlock merge, BasicBlock pred) {
+        if (!(v instanceof Instruction def)) return v;
+        if (def instanceof PhiInst phi && phi.getParent() == merge) {
+            for (int i = 0; i < phi.getNumIncoming(); i++) {
+                if (phi.getIncomingBlock(i) == pred) return phi.getIncomingValue(i);
+            }
+            return null;
+        }
+        BasicBlock block = def.getParent();
+        return block != merge && LoopAnalysis.dominates(block, merge) ? v : null;
+    }
+
+    /**
+     * 沿支配树从 pred 向上找与 (op, operands) 等价的计算，跳过被 M 支配的块 (它们在 M 之后)
+     */
+    private static Value findAvailable(BinaryInst inst, Value[] operands, BasicBlock pred, BasicBlock merge) {
+        BasicBlock entry = merge.getParent().getEntryBlock();
+        for (BasicBlock bb = pred; bb != null; bb = bb == entry ? null : bb.getImmediateDominator()) {
+            if (LoopAnalysis.dominates(merge, bb)) continue;
+            for (Instruction candidate : bb.getInstructions()) {
+                if (candidate != inst && isEquivalent(candidate, inst, operands)) return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isEquivalent(Instruction candidate, BinaryInst inst, Value[] operands) {
+        if (!(candidate instanceof BinaryInst bin) || bin.getOpCode() != inst.getOpCode()) return false;
+        if (!bin.getType().toString().equals(inst.getType().toString())) return false;
+        if (bin.getOp1() == operands[0] && bin.getOp2() == operands[1]) return true;
+        boolean commutative = inst.getOpCode() == BinaryOpCode.ADD || inst.getOpCode() == BinaryOpCode.MUL;
+        return commutative && bin.getOp1() == operands[1] && bin.getOp2() == operands[0];
+    }
+
+    /**
+     * 拆分关键边 pred -> succ，返回新块
+     */
+    private static BasicBlock splitEdge(BasicBlock pred, BasicBlock succ) {
+        BasicBlock newBlock = new BasicBlock("pre_edge_" + (tempCounter++), null);
+        newBlock.setParent(succ.getParent());
+        LinkedList<BasicBlock> funcBlocks = succ.getParent().getBasicBlocks();
+        funcBlocks.add(funcBlocks.indexOf(succ), newBlock);
+        newBlock.addInstruction(new BrInst(succ));
+
+        BrInst br = (BrInst) pred.getTerminator();
+        for (int k = 0; k < br.getNumOperands(); k++) {
+            if (br.getOperand(k) == succ) br.setOperand(k, newBlock);
+        }
+        for (Instruction inst : succ.getInstructions()) {
+            if (!(inst instanceof PhiInst phi)) break;
+            for (int i = 0; i < phi.getNumIncoming(); i++) {
+                if (phi.getIncomingBlock(i) == pred) phi.setOperand(i * 2 + 1, newBlock);
+            }
+        }
+
+        pred.getNextBlocks().replaceAll(bb -> bb == succ ? newBlock : bb);
+        succ.getPrevBlocks().replaceAll(bb -> bb == pred ? newBlock : bb);
+        newBlock.getPrevBlocks().add(pred);
+        newBlock.getNextBlocks().add(succ);
+        return newBlock;
+    }
+
+    private static void replace(Instruction inst, Value value) {
+        inst.replaceAllUsesWith(value);
+        inst.removeOperands();
+        inst.getParent().getInstructions().remove(inst);
+    }
+
+    private static Set<BasicBlock> reachableBlocks(Function function) {
+        Set<BasicBlock> seen = new HashSet<>();
+        Deque<BasicBlock> worklist = new ArrayDeque<>();
+        worklist.add(function.getEntryBlock());
+        seen.add(function.getEntryBlock());
+        while (!worklist.isEmpty()) {
+            for (BasicBlock succ : worklist.poll().getNextBlocks()) {
+                if (seen.add(succ)) worklist.add(succ);
+            }
+        }
+        return seen;
+    }
+}
@@ -0,0 +1,218 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.IntegerType;
+
+import java.util.*;
+
+/**
+ * 分支条件传播
+ * 块 B 只有一个前驱 P 且 P 以 br i1 %c 跳到 B 时，%c 在 B 支配的区域内取值已知，
+ * 它的比较关系 (a op b) 也成立。沿支配树遍历，维护当前区域内成立的事实：
+ * 1. %c 本身替换为常量，嵌套的重复判断随之变为常量分支；
+ * 2. 比较按 {<, =, >} 的可能结果集合判断：同一对操作数的事实取交集，
+ *    与常量比较的事实合并为区间 (外加 != 排除的点)，能推出恒真/恒假的比较替换为常量；
+ * 3. 区间收缩到一个点 (如 x == 5) 时，区域内对 x 的使用替换为该常量。
+ * 常量分支与不可达块交给随后的 SCCP 清理。trunc 的操作数不替换 (后端不支持常量源操作数)。
+ */
+public class PredicatePropagation {
+    private static final int LT = 1, EQ = 2, GT = 4, ALL = LT | EQ | GT;
+
+    /**
+     * lhs op rhs 的可能结果集合为 mask；rhs 为常量时 lhs 不是常量
+     */
+    private static class Fact {
+        final Value lhs;
+        final Value rhs;
+        final int mask;
+
+        Fact(Value lhs, Value rhs, int mask) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+            this.mask = mask;
+        }
+    }
+
+    private static final Deque<Fact> facts = new ArrayDeque<>();
+    // 当前区域内取值已知的值 -> 常量
+    private static final Map<Value, ConstInt> known = new HashMap<>();
+
+    public static void run(Module module) {
+        // 支配树
+        Mem2Reg.run(module, false);
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            facts.clear();
+            known.clear();
+            visit(function.getEntryBlock());
+        }
+    }
+
+    private static void visit(BasicBlock bb) {
+        int pushed = 0;
+        Map<Value, ConstInt> saved = new HashMap<>();
+
+        // 1. 入边上成立的条件
+        if (bb.getPrevBlocks().size() == 1
+                && bb.getPrevBlocks().get(0).getTerminator() instanceof BrInst br && br.isConditional()
+                && br.getTrueDest() != br.getFalseDest()) {
+            boolean outcome = br.getTrueDest() == bb;
+            Value cond = br.getCondition();
+            if (!(cond instanceof ConstInt)) {
+                setKnown(cond, ConstInt.get(IntegerType.get1(), outcome ? 1 : 0), saved);
+            }
+            if (cond instanceof BinaryInst cmp && cmp.getOpCode().isCompare()
+                    && !(cmp.getOp1() instanceof ConstInt && cmp.getOp2() instanceof ConstInt)) {
+                int mask = maskOf(cmp.getOpCode());
+                if (!outcome) mask = ALL & ~mask;
+                Fact fact = cmp.getOp1() instanceof ConstInt
+                        ? new Fact(cmp.getOp2(), cmp.getOp1(), swap(mask))
+                        : new Fact(cmp.getOp1(), cmp.getOp2(), mask);
+                facts.push(fact);
+                pushed++;
+                if (fact.rhs instanceof ConstInt && fact.lhs.getType() instanceof IntegerType type) {
+                    long[] range = getRange(fact.lhs);
+                    if (range[0] == range[1]) setKnown(fact.lhs, ConstInt.get(type, (int) range[0]), saved);
+                }
+            }
+        }
+
+        // 2. 替换已知值，折叠可以推出结果的比较
+        for (Instruction inst : new ArrayList<>(bb.getInstructions())) {
+            substitute(inst);
+            if (inst instanceof BinaryInst cmp && cmp.getOpCode().isCompare()) {
+                Boolean result = evaluate(cmp);
+                if (result != null) {
+                    cmp.replaceAllUsesWith(ConstInt.get(IntegerType.get1(), result ? 1 : 0));
+                    cmp.removeOperands();
+                    bb.getInstructions().remove(cmp);
+                }
+            }
+        }
+        // 后继 Phi 中来自本块的入口值，在本块出口处同样满足这些事实
+        for (BasicBlock succ : bb.getNextBlocks()) {
+            for (Instruction inst : succ.getInstructions()) {
+                if (!(inst instanceof PhiInst phi)) break;
+                for (int i = 0; i < phi.getNumIncoming(); i++) {
+                    ConstInt c = known.get(phi.getIncomingValue(i));
+                    if (phi.getIncomingBlock(i) == bb && c != null) phi.setOperand(i * 2, c);
+                }
+            }
+        }
+
+        for (BasicBlock child : bb.getImmediateDominateBlocks()) {
+            visit(child);
+        }
+
+        // 3. 离开区域
+        for (int i = 0; i < pushed; i++) facts.pop();
+        saved.forEach((value, old) -> {
+            if (old == null) known.remove(value);
+            else known.put(value, old);
+        });
+    }
+
+    private static void setKnown(Value value, ConstInt c, Map<Value, ConstInt> saved) {
+        if (!saved.containsKey(value)) saved.put(value, known.get(value));
+        known.put(value, c);
+    }
+
+    private static void substitute(Instruction inst) {
+        if (inst instanceof TruncInst || inst instanceof PhiInst) return;
+        for (int i = 0; i < inst.getNumOperands(); i++) {
+            ConstInt c = known.get(inst.getOperand(i));
+            if (c != null) inst.setOperand(i, c);
+        }
+    }
+
+    /**
+     * @return 比较在当前区域内的结果，无法确定时返回 null
+     */
+    private static Boolean evaluate(BinaryInst cmp) {
+        Value lhs = cmp.getOp1();
+        Value rhs = cmp.getOp2();
+        int query = maskOf(cmp.getOpCode());
+        if (lhs instanceof ConstInt && !(rhs instanceof ConstInt)) {
+            Value t = lhs;
+            lhs = rhs;
+            rhs = t;
+            query = swap(query);
+        }
+        int possible;
+        if (lhs instanceof ConstInt l && rhs instanceof ConstInt r) {
+            possible = l.getValue() < r.getValue() ? LT : l.getValue() == r.getValue() ? EQ : GT;
+        } else if (rhs instanceof ConstInt c) {
+            possible = compareRange(lhs, c.getValue());
+        } else {
+            possible = ALL;
+            for (Fact fact : facts) {
+                if (fact.lhs == lhs && fact.rhs == rhs) possible &= fact.mask;
+                else if (fact.lhs == rhs && fact.rhs == lhs) possible &= swap(fact.mask);
+            }
+        }
+        // 结果集合为空说明区域不可达，不做改动
+        if (possible == 0) return null;
+        if ((possible & ~query) == 0) return true;
+        if ((possible & query) == 0) return false;
+        return null;
+    }
+
+    /**
+     * v 与常量 c 比较的可能结果集合
+     */
+    private static int compareRange(Value v, int c) {
+        long[] range = getRange(v);
+        if (range[0] > range[1]) return 0;
+        int possible = 0;
+        if (range[0] < c) possible |= LT;
+        if (range[1] > c) possible |= GT;
+        if (range[0] <= c && c <= range[1] && !isExcluded(v, c)) possible |= EQ;
+        return possible;
+    }
+
+    /**
+     * 与常量比较的事实给出的 v 的取值区间 [lo, hi]
+     */
+    private static long[] getRange(Value v) {
+        long lo = Integer.MIN_VALUE, hi = Integer.MAX_VALUE;
+        for (Fact fact : facts) {
+            if (fact.lhs != v || !(fact.rhs instanceof ConstInt c)) continue;
+            long value = c.getValue();
+            long factLo = (fact.mask & LT) != 0 ? Integer.MIN_VALUE : (fact.mask & EQ) != 0 ? value : value + 1;
+            long factHi = (fact.mask & GT) != 0 ? Integer.MAX_VALUE : (fact.mask & EQ) != 0 ? value : value - 1;
+            lo = Math.max(lo, factLo);
+            hi = Math.min(hi, factHi);
+        }
+        return new long[]{lo, hi};
+    }
+
+    private static boolean isExcluded(Value v, int c) {
+        for (Fact fact : facts) {
+            if (fact.lhs == v && fact.mask == (LT | GT) && fact.rhs instanceof ConstInt k && k.getValue() == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int maskOf(BinaryOpCode op) {
+        return switch (op) {
+            case EQ -> EQ;
+            case NE -> LT | GT;
+            case SLT -> LT;
+            case SLE -> LT | EQ;
+            case SGT -> GT;
+            case SGE -> GT | EQ;
+            default -> ALL;
+        };
+    }
+
+    /**
+     * 交换操作数后的结果集合 (< 与 > 互换)
+     */
+    private static int swap(int mask) {
+        return (mask & EQ) | ((mask & LT) != 0 ? GT : 0) | ((mask & GT) != 0 ? LT : 0);
+    }
+}
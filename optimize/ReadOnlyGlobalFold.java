@@ -0,0 +1,112 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.ArrayType;
+import middle.component.type.IntegerType;
+import optimize.analysis.SideEffectAnalysis;
+
+import java.util.*;
+
+/**
+ * 只读全局变量的访存折叠
+ * 从未被 store、地址也没有传给可能写内存的函数的全局变量 (包括 const 数组) 是只读的：
+ * 下标全为常量的 load 直接替换为初始值中对应的元素。
+ * 只读的全局变量会被标记 (IR 中输出为 constant)，折叠后不再被使用的直接从模块中删除。
+ */
+public class ReadOnlyGlobalFold {
+
+    public static void run(Module module) {
+        SideEffectAnalysis.run(module);
+
+        Iterator<GlobalVar> it = module.getGlobalVars().iterator();
+        while (it.hasNext()) {
+            GlobalVar gv = it.next();
+            List<LoadInst> loads = new ArrayList<>();
+            if (!isReadOnly(gv, loads)) continue;
+            gv.setReadOnly(true);
+
+            for (LoadInst load : loads) {
+                Integer offset = getConstOffset(load.getPointer());
+                if (offset == null) continue;
+                ConstInt value = getElement(gv, offset);
+                if (value == null) continue;
+                load.replaceAllUsesWith(value);
+                load.removeOperands();
+                load.getParent().getInstructions().remove(load);
+            }
+            // 所有的 load 都被折叠后，剩下的 GEP 也都是死代码
+            removeDeadGeps(gv);
+            if (gv.getUseList().isEmpty()) it.remove();
+        }
+    }
+
+    /**
+     * 检查以 pointer 为地址的所有使用：只能是 load、GEP 以及不写内存的调用
+     */
+    private static boolean isReadOnly(Value pointer, List<LoadInst> loads) {
+        for (Use use : pointer.getUseList()) {
+            User user = use.getUser();
+            if (user instanceof LoadInst load) {
+                loads.add(load);
+            } else if (user instanceof GepInst gep && gep.getPointer() == pointer) {
+                if (!isReadOnly(gep, loads)) return false;
+            } else if (user instanceof CallInst call) {
+                if (SideEffectAnalysis.mayWriteMemory(call)) return false;
+            } else {
+                // store、Phi 等：可能被写，或无法追踪
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 与后端的 GEP 计算一致：偏移 (以元素计) 为 GEP 链上所有下标之和
+     */
+    private static Integer getConstOffset(Value pointer) {
+        int offset = 0;
+        while (pointer instanceof GepInst gep) {
+            for (int i = 1; i < gep.getNumOperands(); i++) {
+                Integer index = getConstValue(gep.getOperand(i));
+                if (index == null) return null;
+                offset += index;
+            }
+            pointer = gep.getPointer();
+        }
+        return offset;
+    }
+
+    private static Integer getConstValue(Value v) {
+        return v instanceof ConstInt c ? c.getValue() : null;
+    }
+
+    private static ConstInt getElement(GlobalVar gv, int offset) {
+        Constant init = gv.getInitializer();
+        if (gv.getPointeeType() instanceof IntegerType) {
+            if (offset != 0) return null;
+            return init instanceof ConstInt c ? c : ConstInt.get(IntegerType.get32(), 0);
+        }
+        int length = gv.getPointeeType() instanceof ArrayType arrayType
+                ? arrayType.getNumElements() : 0;
+        if (offset < 0 || offset >= length) return null;
+        if (init instanceof ConstArray array && offset < array.getElements().size()) {
+            return array.getElements().get(offset) instanceof ConstInt c ? c : null;
+        }
+        // 初始化列表之外的元素为 0
+        return ConstInt.get(IntegerType.get32(), 0);
+    }
+
+    private static void removeDeadGeps(Value pointer) {
+        for (User user : pointer.getUsers()) {
+            if (user instanceof GepInst gep) {
+                removeDeadGeps(gep);
+                if (gep.getUseList().isEmpty() && gep.getParent() != null) {
+                    gep.getParent().getInstructions().remove(gep);
+                    gep.removeOperands();
+                }
+            }
+        }
+    }
+}
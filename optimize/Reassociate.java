@@ -0,0 +1,217 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.IntegerType;
+
+import java.util.*;
+
+/**
+ * 重结合 (Reassociate)
+ * 把同一块内由单使用的 add/sub (或 mul) 连成的表达式树展平为带符号的操作数列表，合并其中的常量，
+ * 按秩排序后重建为左结合的链 ((r1 ± r2) ± r3) ... + c：
+ * 1. 秩：函数参数等最小，指令按所在块的逆后序位置及块内位置递增，常量总放在最后；
+ *    循环外定义的值在逆后序中先于循环体，因此不变量先结合，部分和可以被 GCM 提到循环外；
+ * 2. 相同的操作数集合总得到相同的链，a + b + c 与 c + a + b 可以被 GVN 合并。
+ * 乘法和加法在 2^32 模下满足结合律与交换律，重排不改变结果。
+ */
+public class Reassociate {
+    private static int tempCounter = 0;
+
+    private static final Map<Value, Long> rankMap = new HashMap<>();
+
+    public static void run(Module module) {
+        // 逆后序需要 CFG
+        Mem2Reg.run(module, false);
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            rankMap.clear();
+            List<BasicBlock> rpo = computeRPO(function);
+            for (int i = 0; i < rpo.size(); i++) {
+                List<Instruction> insts = rpo.get(i).getInstructions();
+                for (int j = 0; j < insts.size(); j++) {
+                    rankMap.put(insts.get(j), (long) (i + 1) << 20 | j);
+                }
+            }
+            for (BasicBlock bb : rpo) {
+                for (Instruction inst : new ArrayList<>(bb.getInstructions())) {
+                    if (inst instanceof BinaryInst bin && isAssociative(bin.getOpCode()) && isRoot(bin)) {
+                        rebuild(bin);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isAssociative(BinaryOpCode op) {
+        return op == BinaryOpCode.ADD || op == BinaryOpCode.SUB || op == BinaryOpCode.MUL;
+    }
+
+    /**
+     * add 与 sub 同属加法树 (a - b 视为 a + (-b))
+     */
+    private static boolean sameFamily(BinaryOpCode a, BinaryOpCode b) {
+        return (a == BinaryOpCode.MUL) == (b == BinaryOpCode.MUL);
+    }
+
+    /**
+     * 能被并入使用者所在的树：同块、同类运算、只有一个使用者
+     */
+    private static boolean isInterior(Value v, BinaryOpCode op, BasicBlock bb) {
+        return v instanceof BinaryInst bin && isAssociative(bin.getOpCode()) && sameFamily(bin.getOpCode(), op)
+                && bin.getParent() == bb && bin.getUseList().size() == 1;
+    }
+
+    private static boolean isRoot(BinaryInst bin) {
+        if (bin.getUseList().size() != 1) return true;
+        User user = bin.getUseList().getFirst().getUser();
+        return !(user instanceof BinaryInst parent && isAssociative(parent.getOpCode())
+                && isInterior(bin, parent.getOpCode(), parent.getParent()));
+    }
+
+    /**
+     * 树的一个叶子；加法树中被减去的叶子 negative 为 true
+     */
+    private static class Term {
+        final Value value;
+        final boolean negative;
+
+        Term(Value value, boolean negative) {
+            this.value = value;
+            this.negative = negative;
+        }
+    }
+
+    private static void rebuild(BinaryInst root) {
+        boolean isMul = root.getOpCode() == BinaryOpCode.MUL;
+        List<Term> leaves = new ArrayList<>();
+        List<BinaryInst> interiors = new ArrayList<>();
+        flatten(root, false, leaves, interiors);
+        if (interiors.isEmpty()) return;
+
+        // 1. 合并常量
+        int identity = isMul ? 1 : 0;
+        int constant = identity;
+        List<Term> terms = new ArrayList<>();
+        for (Term leaf : leaves) {
+            if (leaf.value instanceof ConstInt c) {
+                if (isMul) constant *= c.getValue();
+                else constant += leaf.negative ? -c.getValue() : c.getValue();
+            } else {
+                terms.add(leaf);
+            }
+        }
+        if ((isMul && constant == 0) || terms.isEmpty()) {
+            replace(root, interiors, ConstInt.get(IntegerType.get32(), constant));
+            return;
+        }
+
+        // 2. 按秩排序，以秩最小的正项开头；已经是规范形式时不改写
+        terms.sort(Comparator.comparingLong(term -> getRank(term.value)));
+        for (int i = 0; i < terms.size(); i++) {
+            if (!terms.get(i).negative) {
+                terms.add(0, terms.remove(i));
+                break;
+            }
+        }
+        if (constant != identity) terms.add(new Term(ConstInt.get(IntegerType.get32(), constant), false));
+        if (isCanonical(root, isMul, terms)) return;
+
+        // 3. 重建左结合的链
+        Term first = terms.get(0);
+        Value acc = first.negative
+                ? insert(root, BinaryOpCode.SUB, ConstInt.get(IntegerType.get32(), 0), first.value)
+                : first.value;
+        for (int i = 1; i < terms.size(); i++) {
+            Term term = terms.get(i);
+            BinaryOpCode op = isMul ? BinaryOpCode.MUL : term.negative ? BinaryOpCode.SUB : BinaryOpCode.ADD;
+            acc = insert(root, op, acc, term.value);
+        }
+        rankMap.put(acc, getRank(root));
+        replace(root, interiors, acc);
+    }
+
+    /**
+     * 收集树的叶子 (按从左到右的顺序) 和内部结点；negative 表示当前子树整体被减去
+     */
+    private static void flatten(BinaryInst node, boolean negative, List<Term> leaves, List<BinaryInst> interiors) {
+        boolean rhsNegative = node.getOpCode() == BinaryOpCode.SUB ? !negative : negative;
+        for (int i = 0; i < 2; i++) {
+            Value operand = node.getOperand(i);
+            boolean neg = i == 0 ? negative : rhsNegative;
+            if (isInterior(operand, node.getOpCode(), node.getParent())) {
+                interiors.add((BinaryInst) operand);
+                flatten((BinaryInst) operand, neg, leaves, interiors);
+            } else {
+                leaves.add(new Term(operand, neg));
+            }
+        }
+    }
+
+    /**
+     * 原树已经是 terms 对应的左结合链
+     */
+    private static boolean isCanonical(BinaryInst root, boolean isMul, List<Term> terms) {
+        Value node = root;
+        for (int i = terms.size() - 1; i > 0; i--) {
+            Term term = terms.get(i);
+            BinaryOpCode op = isMul ? BinaryOpCode.MUL : term.negative ? BinaryOpCode.SUB : BinaryOpCode.ADD;
+            if (!(node instanceof BinaryInst bin) || bin.getOpCode() != op || bin.getOp2() != term.value) {
+                return false;
+            }
+            node = bin.getOp1();
+        }
+        return node == terms.get(0).value && !terms.get(0).negative;
+    }
+
+    private static BinaryInst insert(BinaryInst before, BinaryOpCode op, Value lhs, Value rhs) {
+        BinaryInst inst = new BinaryInst(op, lhs, rhs);
+        inst.setName("%reass_" + (tempCounter++));
+        List<Instruction> insts = before.getParent().getInstructions();
+        insts.add(insts.indexOf(before), inst);
+        inst.setParent(before.getParent());
+        return inst;
+    }
+
+    private static void replace(BinaryInst root, List<BinaryInst> interiors, Value value) {
+        root.replaceAllUsesWith(value);
+        root.removeOperands();
+        root.getParent().getInstructions().remove(root);
+        for (BinaryInst inst : interiors) {
+            inst.removeOperands();
+            inst.getParent().getInstructions().remove(inst);
+        }
+    }
+
+    private static long getRank(Value v) {
+        // 函数参数、全局变量等在函数入口之前就已确定
+        return rankMap.getOrDefault(v, 0L);
+    }
+
+    private static List<BasicBlock> computeRPO(Function function) {
+        List<BasicBlock> postOrder = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<Iterator<BasicBlock>> stack = new ArrayDeque<>();
+        Deque<BasicBlock> path = new ArrayDeque<>();
+        BasicBlock entry = function.getEntryBlock();
+        visited.add(entry);
+        stack.push(entry.getNextBlocks().iterator());
+        path.push(entry);
+        while (!stack.isEmpty()) {
+            Iterator<BasicBlock> it = stack.peek();
+            if (it.hasNext()) {
+                BasicBlock succ = it.next();
+                if (visited.add(succ)) {
+                    stack.push(succ.getNextBlocks().iterator());
+                    path.push(succ);
+                }
+            } else {
+                stack.pop();
+                postOrder.add(path.pop());
+            }
+        }
+        Collections.reverse(postOrder);
+        return postOrder;
+    }
+}
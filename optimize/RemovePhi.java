@@ -9,14 +9,27 @@ import middle.component.model.BasicBlock;
 import middle.component.model.Function;
 import middle.component.model.Module;
 import middle.component.model.Value;
-import middle.component.type.IntegerType;
+import middle.component.type.UnDefined;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * 消除 Phi (Out-of-SSA)
+ * 在寄存器分配之后运行：每条 CFG 边上的 Phi 赋值构成一组并行拷贝，
+ * 按物理位置 (寄存器，或溢出变量各自的栈槽) 串行化为最少的 Move：
+ * 1. 源和目标位于同一位置的拷贝直接省略 (合并成功的 Phi 不产生任何指令)；
+ * 2. 目标不再被其他拷贝读取的拷贝可以直接发出；
+ * 3. 剩下的都是环，每个环只借用一次临时寄存器。
+ * 只有边上确实存在拷贝、且前驱有多个后继时才拆分关键边。
+ */
 public class RemovePhi {
+    // 打破拷贝环使用的临时寄存器 (不参与分配；拷贝序列中间不会有其他指令使用它)
+    private static final Register SCRATCH = Register.V1;
+
     private static Map<Value, Register> var2reg;
     private static int tempCounter = 0;
 
@@ -37,177 +50,154 @@ public class RemovePhi {
     }
 
     private static void removePhi(BasicBlock currentBlock) {
-        ArrayList<Instruction> instructions = new ArrayList<>(currentBlock.getInstructions());
-        HashMap<BasicBlock, ArrayList<MoveInst>> moves = new HashMap<>();
+        List<PhiInst> phis = new ArrayList<>();
+        for (Instruction instruction : currentBlock.getInstructions()) {
+            if (!(instruction instanceof PhiInst)) {
+                break; // Phi 指令一定在块开头
+            }
+            phis.add((PhiInst) instruction);
+        }
+        if (phis.isEmpty()) return;
 
-        // 初始化所有前驱的 Move 列表
+        // 1. 按前驱收集并行拷贝 (dst <- src)
+        Map<BasicBlock, List<Value[]>> copies = new HashMap<>();
         for (BasicBlock parent : currentBlock.getPrevBlocks()) {
-            moves.put(parent, new ArrayList<>());
+            copies.put(parent, new ArrayList<>());
         }
-
-        for (Instruction instruction : instructions) {
-            if (!(instruction instanceof PhiInst)) {
-                break; // Phi 指令一定在块开头
+        for (PhiInst phi : phis) {
+            // 没有使用者的 Phi 不需要赋值
+            if (phi.getUseList().isEmpty()) continue;
+
+            for (int i = 0; i < phi.getNumIncoming(); i++) {
+                Value src = phi.getIncomingValue(i);
+                List<Value[]> list = copies.get(phi.getIncomingBlock(i));
+                // 过滤无效前驱、未定义值以及源和目标在同一位置的拷贝
+                if (list == null || src instanceof UnDefined || sameLocation(phi, src)) continue;
+                list.add(new Value[]{phi, src});
             }
-            PhiInst phiInst = (PhiInst) instruction;
+        }
 
-            // 【关键修复 1】：手动且安全地解析操作数，防止 IndexOutOfBounds
-            // 不要调用 phiInst.getIncomingValues()，因为它的内部逻辑可能在优化过程中失效
-            ArrayList<Value> alternatives = new ArrayList<>();
-            ArrayList<BasicBlock> blocks = new ArrayList<>();
+        // 从当前块移除 Phi 指令
+        for (PhiInst phi : phis) {
+            currentBlock.getInstructions().remove(phi);
+            phi.setParent(null);
+        }
 
-            int numOps = phiInst.getNumOperands();
-            for (int i = 0; i < numOps; i += 2) {
-                // 防御性检查：确保操作数是成对的 (Value, Block)
-                if (i + 1 >= numOps) break;
+        // 2. 对每条边串行化并插入
+        ArrayList<BasicBlock> parents = new ArrayList<>(currentBlock.getPrevBlocks());
+        for (BasicBlock parent : parents) {
+            List<Value[]> parallel = copies.get(parent);
+            if (parallel == null || parallel.isEmpty()) continue;
 
-                Value val = phiInst.getOperand(i);
-                Value blkVal = phiInst.getOperand(i + 1);
+            List<MoveInst> sequence = sequentialize(parallel);
 
-                if (blkVal instanceof BasicBlock) {
-                    alternatives.add(val);
-                    blocks.add((BasicBlock) blkVal);
-                }
-            }
-
-            // 过滤无效前驱 (Sanity Check)
-            for (int i = 0; i < blocks.size(); i++) {
-                if (!currentBlock.getPrevBlocks().contains(blocks.get(i))) {
-                    blocks.remove(i);
-                    alternatives.remove(i);
-                    i--;
-                }
-            }
+            if (parent.getNextBlocks().size() > 1) {
+                insertOnSplitEdge(parent, currentBlock, sequence);
+            } else {
+                Instruction terminator = parent.getLastInstruction();
+                int insertIdx = parent.getInstructions().indexOf(terminator);
+                if (insertIdx == -1) insertIdx = parent.getInstructions().size();
 
-            // 生成 Move 意图
-            for (int i = 0; i < alternatives.size(); i++) {
-                Value val = alternatives.get(i);
-                BasicBlock srcBlock = blocks.get(i);
-                if (moves.containsKey(srcBlock)) {
-                    moves.get(srcBlock).add(new MoveInst(phiInst, val));
+                for (Instruction inst : sequence) {
+                    parent.getInstructions().add(insertIdx++, inst);
+                    inst.setParent(parent);
                 }
             }
-
-            // 从当前块移除 Phi 指令
-            currentBlock.getInstructions().remove(instruction);
-            instruction.setParent(null);
         }
+    }
 
-        // 2. 处理 Move 插入
-        ArrayList<BasicBlock> parents = new ArrayList<>(currentBlock.getPrevBlocks());
-
-        for (BasicBlock parent : parents) {
-            if (moves.get(parent) == null || moves.get(parent).isEmpty()) {
-                continue;
-            }
-
-            ArrayList<MoveInst> moveList = moves.get(parent);
-            ArrayList<MoveInst> parallels = new ArrayList<>();
-
-            // ---------------------------------------------------------
-            // 解决并行赋值冲突 - 值冲突
-            // ---------------------------------------------------------
-            for (int i = 0; i < moveList.size(); i++) {
-                for (int j = i + 1; j < moveList.size(); j++) {
-                    if (moveList.get(i).getToValue().equals(moveList.get(j).getFromValue())) {
-                        // 【关键修复 2】：变量名必须以 % 开头
-                        String name = "%pc_temp_" + (tempCounter++);
-                        Value tempValue = new Value(moveList.get(i).getToValue().getType());
-                        tempValue.setName(name);
-
-                        MoveInst tempMove = new MoveInst(tempValue, moveList.get(i).getToValue());
-                        parallels.add(0, tempMove);
-
-                        for (int k = j; k < moveList.size(); k++) {
-                            if (moveList.get(i).getToValue().equals(moveList.get(k).getFromValue())) {
-                                moveList.get(k).setOperand(1, tempValue);
-                            }
-                        }
+    /**
+     * 并行拷贝串行化
+     * 反复发出 "目标位置不再被其余拷贝读取" 的拷贝；无法继续时剩下的全部成环，
+     * 此时把某个目标位置的旧值暂存到临时寄存器，并让读取它的拷贝改读临时寄存器。
+     */
+    private static List<MoveInst> sequentialize(List<Value[]> parallel) {
+        List<Value[]> pending = new ArrayList<>(parallel);
+        List<MoveInst> sequence = new ArrayList<>();
+
+        while (!pending.isEmpty()) {
+            boolean progress = true;
+            while (progress) {
+                progress = false;
+                for (int i = 0; i < pending.size(); i++) {
+                    Value[] copy = pending.get(i);
+                    if (!isReadByOthers(copy, pending)) {
+                        sequence.add(new MoveInst(copy[0], copy[1]));
+                        pending.remove(i);
+                        progress = true;
+                        break;
                     }
                 }
-                parallels.add(moveList.get(i));
             }
-
-            // ---------------------------------------------------------
-            // 解决物理寄存器冲突 (RegAlloc 后)
-            // ---------------------------------------------------------
-            ArrayList<MoveInst> finalMoves = new ArrayList<>();
-            for (int i = 0; i < parallels.size(); i++) {
-                for (int j = i + 1; j < parallels.size(); j++) {
-                    Value destI = parallels.get(i).getToValue();
-                    Value srcJ = parallels.get(j).getFromValue();
-
-                    if (var2reg.containsKey(destI) && var2reg.containsKey(srcJ) &&
-                            var2reg.get(destI).equals(var2reg.get(srcJ))) {
-
-                        // 【关键修复 2】：变量名必须以 % 开头
-                        String name = "%pc_reg_temp_" + (tempCounter++);
-                        Value tempValue = new Value(moveList.get(i).getToValue().getType());
-                        tempValue.setName(name);
-
-                        MoveInst tempMove = new MoveInst(tempValue, destI);
-                        finalMoves.add(0, tempMove);
-
-                        for (int k = j; k < parallels.size(); k++) {
-                            Value srcK = parallels.get(k).getFromValue();
-                            if (var2reg.containsKey(srcK) &&
-                                    var2reg.get(destI).equals(var2reg.get(srcK))) {
-                                parallels.get(k).setOperand(1, tempValue);
-                            }
-                        }
-                    }
+            if (pending.isEmpty()) break;
+
+            // 打破环：temp <- dst，之后读取 dst 位置的拷贝改为读取 temp
+            Value blocked = pending.get(0)[0];
+            Value temp = new Value(blocked.getType());
+            temp.setName("%pc_temp_" + (tempCounter++));
+            var2reg.put(temp, SCRATCH);
+            sequence.add(new MoveInst(temp, blocked));
+            for (Value[] copy : pending) {
+                if (sameLocation(copy[1], blocked)) {
+                    copy[1] = temp;
                 }
-                finalMoves.add(parallels.get(i));
             }
+        }
+        return sequence;
+    }
 
-            // ---------------------------------------------------------
-            // 关键边拆分 (Critical Edge Splitting) 与指令插入
-            // ---------------------------------------------------------
-            if (parent.getNextBlocks().size() > 1) {
-                // 【关键修复 3】：传入 null 防止自动添加到函数末尾导致重复
-                BasicBlock newBlock = new BasicBlock("pc_edge_" + (tempCounter++), null);
-                newBlock.setParent(currentBlock.getParent());
-
-                LinkedList<BasicBlock> funcBlocks = currentBlock.getParent().getBasicBlocks();
-                int idx = funcBlocks.indexOf(currentBlock);
-
-                if (idx != -1) funcBlocks.add(idx, newBlock);
-                else funcBlocks.add(newBlock);
+    private static boolean isReadByOthers(Value[] copy, List<Value[]> pending) {
+        for (Value[] other : pending) {
+            if (other != copy && sameLocation(other[1], copy[0])) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                for (Instruction inst : finalMoves) {
-                    newBlock.addInstruction(inst);
-                }
+    /**
+     * 两个值是否占用同一物理位置：同一个值，或分配到同一寄存器
+     * (溢出变量各自拥有独立栈槽，常量不占位置)
+     */
+    private static boolean sameLocation(Value a, Value b) {
+        if (a == b) return true;
+        Register ra = var2reg.get(a);
+        return ra != null && ra == var2reg.get(b);
+    }
 
-                BrInst brToCurrent = new BrInst(currentBlock);
-                newBlock.addInstruction(brToCurrent);
+    /**
+     * 拆分关键边 parent -> succ，并把拷贝放到新块中
+     */
+    private static void insertOnSplitEdge(BasicBlock parent, BasicBlock succ, List<MoveInst> sequence) {
+        // 【关键修复 3】：传入 null 防止自动添加到函数末尾导致重复
+        BasicBlock newBlock = new BasicBlock("pc_edge_" + (tempCounter++), null);
+        newBlock.setParent(succ.getParent());
 
-                Instruction terminator = parent.getLastInstruction();
-                if (terminator instanceof BrInst) {
-                    BrInst parentBr = (BrInst) terminator;
-                    for (int k = 0; k < parentBr.getNumOperands(); k++) {
-                        if (parentBr.getOperand(k) == currentBlock) {
-                            parentBr.setOperand(k, newBlock);
-                        }
-                    }
-                }
+        LinkedList<BasicBlock> funcBlocks = succ.getParent().getBasicBlocks();
+        int idx = funcBlocks.indexOf(succ);
 
-                parent.getNextBlocks().remove(currentBlock);
-                parent.getNextBlocks().add(newBlock);
-                newBlock.getPrevBlocks().add(parent);
-                newBlock.getNextBlocks().add(currentBlock);
-                currentBlock.getPrevBlocks().remove(parent);
-                currentBlock.getPrevBlocks().add(newBlock);
+        if (idx != -1) funcBlocks.add(idx, newBlock);
+        else funcBlocks.add(newBlock);
 
-            } else {
-                Instruction terminator = parent.getLastInstruction();
-                int insertIdx = parent.getInstructions().indexOf(terminator);
-                if (insertIdx == -1) insertIdx = parent.getInstructions().size();
+        for (Instruction inst : sequence) {
+            newBlock.addInstruction(inst);
+        }
+        newBlock.addInstruction(new BrInst(succ));
 
-                for (Instruction inst : finalMoves) {
-                    parent.getInstructions().add(insertIdx++, inst);
-                    inst.setParent(parent);
+        Instruction terminator = parent.getLastInstruction();
+        if (terminator instanceof BrInst parentBr) {
+            for (int k = 0; k < parentBr.getNumOperands(); k++) {
+                if (parentBr.getOperand(k) == succ) {
+                    parentBr.setOperand(k, newBlock);
                 }
             }
         }
+
+        parent.getNextBlocks().remove(succ);
+        parent.getNextBlocks().add(newBlock);
+        newBlock.getPrevBlocks().add(parent);
+        newBlock.getNextBlocks().add(succ);
+        succ.getPrevBlocks().remove(parent);
+        succ.getPrevBlocks().add(newBlock);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,246 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.IntegerType;
+
+import java.util.*;
+
+/**
+ * 稀疏条件常量传播 (SCCP, Wegman-Zadeck)
+ * 格：未定 (TOP，不在表中) > 常量 (ConstInt) > 非常量 (BOTTOM)。
+ * 1. 只有可执行的 CFG 边才会被 Phi 合并；条件为常量的分支只有一条出边可执行；
+ * 2. 两个工作表：新变为可执行的块、格值下降的指令的使用者；
+ * 3. 收敛后，格值为常量的指令直接用 ConstInt 替换 (不再生成 "add 0, imm" 这样的实体化指令)，
+ *    条件为常量的分支改为无条件跳转，并删除不可达的块。
+ * 被替换的只有 Binary / Zext / Trunc / Phi；两个操作数都是常量的比较一定会被折叠，后端不需要处理它们。
+ */
+public class SCCP {
+    // 非常量
+    private static final Value BOTTOM = new Value(IntegerType.get32());
+
+    private static final Map<Value, Value> lattice = new HashMap<>();
+    private static final Set<BasicBlock> executableBlocks = new HashSet<>();
+    private static final Map<BasicBlock, Set<BasicBlock>> executableEdges = new HashMap<>();
+    private static final Deque<BasicBlock> blockWorklist = new ArrayDeque<>();
+    private static final Deque<Instruction> instWorklist = new ArrayDeque<>();
+
+    public static void run(Module module) {
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            lattice.clear();
+            executableBlocks.clear();
+            executableEdges.clear();
+            solve(function);
+            rewrite(function);
+        }
+        // 重建 CFG 与支配树
+        Mem2Reg.run(module, false);
+    }
+
+    // --- 求解 ---
+
+    private static void solve(Function function) {
+        BasicBlock entry = function.getEntryBlock();
+        executableBlocks.add(entry);
+        blockWorklist.add(entry);
+        while (!blockWorklist.isEmpty() || !instWorklist.isEmpty()) {
+            while (!instWorklist.isEmpty()) {
+                Instruction inst = instWorklist.poll();
+                if (executableBlocks.contains(inst.getParent())) visit(inst);
+            }
+            while (!blockWorklist.isEmpty()) {
+                BasicBlock bb = blockWorklist.poll();
+                for (Instruction inst : bb.getInstructions()) visit(inst);
+            }
+        }
+    }
+
+    private static void markEdge(BasicBlock from, BasicBlock to) {
+        if (!executableEdges.computeIfAbsent(from, k -> new HashSet<>()).add(to)) return;
+        if (executableBlocks.add(to)) {
+            blockWorklist.add(to);
+        } else {
+            // 已可执行的块多了一条入边，只需要重新合并 Phi
+            for (Instruction inst : to.getInstructions()) {
+                if (!(inst instanceof PhiInst)) break;
+                instWorklist.add(inst);
+            }
+        }
+    }
+
+    private static boolean isEdgeExecutable(BasicBlock from, BasicBlock to) {
+        Set<BasicBlock> succs = executableEdges.get(from);
+        return succs != null && succs.contains(to);
+    }
+
+    private static void visit(Instruction inst) {
+        if (inst instanceof BrInst br) {
+            visitBranch(br);
+            return;
+        }
+        Value old = lattice.get(inst);
+        if (old == BOTTOM) return;
+        Value result = evaluate(inst);
+        if (result == null || result == old) return;
+        lattice.put(inst, result);
+        for (User user : inst.getUsers()) {
+            if (user instanceof Instruction userInst) instWorklist.add(userInst);
+        }
+    }
+
+    private static void visitBranch(BrInst br) {
+        BasicBlock bb = br.getParent();
+        if (!br.isConditional()) {
+            markEdge(bb, (BasicBlock) br.getTrueDest());
+            return;
+        }
+        Value cond = getLattice(br.getCondition());
+        if (cond == null) return;
+        if (cond instanceof ConstInt c) {
+            markEdge(bb, (BasicBlock) (c.getValue() != 0 ? br.getTrueDest() : br.getFalseDest()));
+        } else {
+            markEdge(bb, (BasicBlock) br.getTrueDest());
+            markEdge(bb, (BasicBlock) br.getFalseDest());
+        }
+    }
+
+    /**
+     * 常量的格值为它自己，函数参数、全局变量等为 BOTTOM，尚未求值的指令为 null (TOP)
+     */
+    private static Value getLattice(Value v) {
+        if (v instanceof ConstInt) return v;
+        if (v instanceof Instruction) return lattice.get(v);
+        return BOTTOM;
+    }
+
+    /**
+     * @return 新的格值，null 表示仍未定
+     */
+    private static Value evaluate(Instruction inst) {
+        if (inst instanceof PhiInst phi) return evaluatePhi(phi);
+        if (inst instanceof BinaryInst bin) return evaluateBinary(bin);
+        if (inst instanceof ZextInst zext) {
+            Value src = getLattice(zext.getValueToCast());
+            if (src instanceof ConstInt c) return ConstInt.get((IntegerType) zext.getType(), c.getValue());
+            return src;
+        }
+        if (inst instanceof TruncInst trunc) {
+            Value src = getLattice(trunc.getValueToCast());
+            if (src instanceof ConstInt c) return truncate((IntegerType) trunc.getType(), c.getValue());
+            return src;
+        }
+        return BOTTOM;
+    }
+
+    private static Value evaluatePhi(PhiInst phi) {
+        Value result = null;
+        for (int i = 0; i < phi.getNumIncoming(); i++) {
+            if (!isEdgeExecutable(phi.getIncomingBlock(i), phi.getParent())) continue;
+            Value v = getLattice(phi.getIncomingValue(i));
+            if (v == null) continue;
+            if (v == BOTTOM) return BOTTOM;
+            if (result == null) {
+                result = v;
+            } else if (((ConstInt) result).getValue() != ((ConstInt) v).getValue()) {
+                return BOTTOM;
+            }
+        }
+        if (result != null && result.getType() != phi.getType()) {
+            result = ConstInt.get((IntegerType) phi.getType(), ((ConstInt) result).getValue());
+        }
+        return result;
+    }
+
+    private static Value evaluateBinary(BinaryInst bin) {
+        Value lhs = getLattice(bin.getOperand(0));
+        Value rhs = getLattice(bin.getOperand(1));
+        // x * 0 与另一个操作数无关
+        if (bin.getOpCode() == BinaryOpCode.MUL && (isZero(lhs) || isZero(rhs))) {
+            return ConstInt.get((IntegerType) bin.getType(), 0);
+        }
+        if (lhs == BOTTOM || rhs == BOTTOM) return BOTTOM;
+        if (lhs == null || rhs == null) return null;
+        Integer folded = fold(bin.getOpCode(), ((ConstInt) lhs).getValue(), ((ConstInt) rhs).getValue());
+        // 除零保留到运行时
+        if (folded == null) return BOTTOM;
+        return ConstInt.get((IntegerType) bin.getType(), folded);
+    }
+
+    private static Integer fold(BinaryOpCode op, int v1, int v2) {
+        return switch (op) {
+            case ADD -> v1 + v2;
+            case SUB -> v1 - v2;
+            case MUL -> v1 * v2;
+            case SDIV -> v2 == 0 ? null : v1 / v2;
+            case SREM -> v2 == 0 ? null : v1 % v2;
+            case EQ -> v1 == v2 ? 1 : 0;
+            case NE -> v1 != v2 ? 1 : 0;
+            case SGT -> v1 > v2 ? 1 : 0;
+            case SGE -> v1 >= v2 ? 1 : 0;
+            case SLT -> v1 < v2 ? 1 : 0;
+            case SLE -> v1 <= v2 ? 1 : 0;
+            default -> null;
+        };
+    }
+
+    private static ConstInt truncate(IntegerType type, int value) {
+        return switch (type.getBitWidth()) {
+            case 1 -> ConstInt.get(type, value & 1);
+            case 8 -> ConstInt.get(type, value & 0xFF);
+            default -> ConstInt.get(type, value);
+        };
+    }
+
+    private static boolean isZero(Value v) {
+        return v instanceof ConstInt c && c.getValue() == 0;
+    }
+
+    // --- 改写 ---
+
+    private static void rewrite(Function function) {
+        for (BasicBlock bb : function.getBasicBlocks()) {
+            if (!executableBlocks.contains(bb)) continue;
+            for (Instruction inst : new ArrayList<>(bb.getInstructions())) {
+                if (lattice.get(inst) instanceof ConstInt c) {
+                    inst.replaceAllUsesWith(c);
+                    inst.removeOperands();
+                    bb.getInstructions().remove(inst);
+                }
+            }
+            if (bb.getTerminator() instanceof BrInst br && br.isConditional()
+                    && getLattice(br.getCondition()) instanceof ConstInt c) {
+                BasicBlock taken = (BasicBlock) (c.getValue() != 0 ? br.getTrueDest() : br.getFalseDest());
+                BasicBlock notTaken = (BasicBlock) (c.getValue() != 0 ? br.getFalseDest() : br.getTrueDest());
+                if (notTaken != taken) removeIncoming(notTaken, bb);
+                br.removeOperands();
+                bb.getInstructions().remove(br);
+                bb.addInstruction(new BrInst(taken));
+            }
+        }
+        // 删除不可达的块，之后的循环分析等不会看到它们
+        for (BasicBlock dead : new ArrayList<>(function.getBasicBlocks())) {
+            if (executableBlocks.contains(dead)) continue;
+            if (dead.getTerminator() instanceof BrInst br) {
+                for (Value succ : br.isConditional()
+                        ? List.of(br.getTrueDest(), br.getFalseDest()) : List.of(br.getTrueDest())) {
+                    removeIncoming((BasicBlock) succ, dead);
+                }
+            }
+            for (Instruction inst : dead.getInstructions()) {
+                inst.removeOperands();
+            }
+            function.getBasicBlocks().remove(dead);
+        }
+    }
+
+    private static void removeIncoming(BasicBlock block, BasicBlock pred) {
+        for (Instruction inst : block.getInstructions()) {
+            if (!(inst instanceof PhiInst phi)) break;
+            for (int i = phi.getNumIncoming() - 1; i >= 0; i--) {
+                if (phi.getIncomingBlock(i) == pred) phi.removeIncoming(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.ArrayType;
+import middle.component.type.IntegerType;
+import optimize.analysis.AliasAnalysis;
+
+import java.util.*;
+
+/**
+ * 聚合体标量替换 (SROA)
+ * 元素个数不超过 MAX_ELEMENTS、且只通过常量下标 load/store 访问的局部数组，
+ * 拆成每个元素一个 i32 的 alloca，之后由 Mem2Reg 提升为 SSA 值。
+ * 需要在 Mem2Reg 之前运行。
+ */
+public class SROA {
+    // 拆分的数组大小上限
+    private static final int MAX_ELEMENTS = 16;
+
+    private static int tempCounter = 0;
+
+    public static void run(Module module) {
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            List<AllocInst> allocas = new ArrayList<>();
+            for (Instruction inst : function.getEntryBlock().getInstructions()) {
+                if (inst instanceof AllocInst alloc) allocas.add(alloc);
+            }
+            for (AllocInst alloc : allocas) {
+                if (!(alloc.getAllocatedType() instanceof ArrayType arrayType)) continue;
+                if (arrayType.getNumElements() > MAX_ELEMENTS) continue;
+                split(alloc, arrayType.getNumElements());
+            }
+        }
+    }
+
+    private static void split(AllocInst alloc, int length) {
+        // 1. 收集所有访问，并检查下标都是范围内的常量
+        List<Instruction> accesses = new ArrayList<>();
+        List<GepInst> geps = new ArrayList<>();
+        if (!collect(alloc, accesses, geps)) return;
+        Map<Instruction, Integer> offsets = new HashMap<>();
+        for (Instruction inst : accesses) {
+            Value pointer = inst instanceof LoadInst load ? load.getPointer() : ((StoreInst) inst).getPointer();
+            Long offset = AliasAnalysis.getConstantOffset(pointer);
+            if (offset == null || offset < 0 || offset >= length) return;
+            offsets.put(inst, offset.intValue());
+        }
+
+        // 2. 每个元素一个 alloca
+        BasicBlock entry = alloc.getParent();
+        String baseName = alloc.getName().replace("%", "");
+        AllocInst[] elements = new AllocInst[length];
+        for (int i = 0; i < length; i++) {
+            elements[i] = new AllocInst("%" + baseName + "_sroa" + (tempCounter++), IntegerType.get32());
+            entry.addInstruction(elements[i]);
+        }
+
+        // 3. 访问改为直接访问元素
+        for (Instruction inst : accesses) {
+            int index = inst instanceof LoadInst ? 0 : 1;
+            inst.setOperand(index, elements[offsets.get(inst)]);
+        }
+        // 先删除依赖其他 GEP 的 GEP
+        for (int i = geps.size() - 1; i >= 0; i--) {
+            GepInst gep = geps.get(i);
+            gep.removeOperands();
+            gep.getParent().getInstructions().remove(gep);
+        }
+        entry.getInstructions().remove(alloc);
+    }
+
+    /**
+     * 地址 (经过 GEP) 只被 load 以及作为 store 的目标使用；GEP 按先基址后派生的顺序收集
+     */
+    private static boolean collect(Value pointer, List<Instruction> accesses, List<GepInst> geps) {
+        for (Use use : pointer.getUseList()) {
+            User user = use.getUser();
+            if (user instanceof LoadInst load) {
+                accesses.add(load);
+            } else if (user instanceof StoreInst store && store.getPointer() == pointer && store.getValue() != pointer) {
+                accesses.add(store);
+            } else if (user instanceof GepInst gep && gep.getPointer() == pointer) {
+                geps.add(gep);
+                if (!collect(gep, accesses, geps)) return false;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+}
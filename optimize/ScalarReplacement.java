@@ -0,0 +1,217 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.ArrayType;
+import middle.component.type.IntegerType;
+import middle.component.type.PointerType;
+import optimize.analysis.AliasAnalysis;
+import optimize.analysis.LoopAnalysis;
+import optimize.analysis.LoopAnalysis.Loop;
+import optimize.analysis.SideEffectAnalysis;
+
+import java.util.*;
+
+/**
+ * 循环间数组引用的标量替换 (Carr-Kennedy)
+ * 归纳变量 i 每轮增加常量 s 时，本轮读取的 a[i + c] 正是上一轮结束时 a[i + c + s] 的值：
+ * 若上一轮访问过 a[i + c + s] (load 或 store)，就在循环头用 Phi 把它的值传到本轮，代替这次 load。
+ * 第一轮的值由 preheader 中对 a[init + c] 的 load 提供。
+ * 适用条件：
+ * 1. 循环有 preheader 和唯一的 latch，归纳变量为循环头的 Phi [init, preheader] [i + s, latch]，init 为常量；
+ * 2. 数组在循环中的所有访问都是 "a[i + 常量]"，位于同一个支配 latch 的块中，
+ *    循环中的调用以及经由其他基址 (可能别名的指针参数等) 的 load/store 都不读写该数组；
+ * 3. preheader 中的预读下标 init + c 在数组范围内 (不引入越界访问)。
+ */
+public class ScalarReplacement {
+    private static int tempCounter = 0;
+
+    public static void run(Module module) {
+        SideEffectAnalysis.run(module);
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            for (Loop loop : LoopAnalysis.run(function)) {
+                runOnLoop(loop);
+            }
+        }
+    }
+
+    /**
+     * 块中对同一数组的一次访问
+     */
+    private static class Access {
+        final Instruction inst;
+        final long offset;
+
+        Access(Instruction inst, long offset) {
+            this.inst = inst;
+            this.offset = offset;
+        }
+
+        // 这次访问之后该元素的值
+        Value value() {
+            return inst instanceof StoreInst store ? store.getValue() : inst;
+        }
+    }
+
+    private static void runOnLoop(Loop loop) {
+        BasicBlock preheader = loop.getPreheader();
+        if (preheader == null || loop.getLatches().size() != 1) return;
+        BasicBlock latch = loop.getLatches().get(0);
+        for (Instruction inst : new ArrayList<>(loop.getHeader().getInstructions())) {
+            if (!(inst instanceof PhiInst phi)) break;
+            if (phi.getNumIncoming() != 2) continue;
+            Integer init = getConstant(getIncoming(phi, preheader));
+            Integer step = getStep(phi, getIncoming(phi, latch));
+            if (init == null || step == null || step == 0) continue;
+            runOnInductionVariable(loop, preheader, latch, phi, init, step);
+        }
+    }
+
+    private static void runOnInductionVariable(Loop loop, BasicBlock preheader, BasicBlock latch,
+                                               PhiInst iv, int init, int step) {
+        // 1. 按基址收集循环中的访存
+        Map<Value, List<Instruction>> accessesOfBase = new LinkedHashMap<>();
+        List<CallInst> calls = new ArrayList<>();
+        for (BasicBlock bb : loop.getBlocks()) {
+            for (Instruction inst : bb.getInstructions()) {
+                Value pointer = null;
+                if (inst instanceof LoadInst load) pointer = load.getPointer();
+                else if (inst instanceof StoreInst store) pointer = store.getPointer();
+                else if (inst instanceof CallInst call) calls.add(call);
+                if (pointer != null) {
+                    accessesOfBase.computeIfAbsent(SideEffectAnalysis.getBase(pointer), k -> new ArrayList<>()).add(inst);
+                }
+            }
+        }
+
+        for (Map.Entry<Value, List<Instruction>> entry : accessesOfBase.entrySet()) {
+            Value base = entry.getKey();
+            if (!(base instanceof GlobalVar || base instanceof AllocInst)) continue;
+            if (!(((PointerType) base.getType()).getPointeeType() instanceof ArrayType arrayType)) continue;
+            List<Access> accesses = collectAccesses(entry.getValue(), iv, latch);
+            if (accesses == null || isTouchedByCalls(calls, base) || isTouchedByOtherAccesses(accessesOfBase, base)) {
+                continue;
+            }
+            replaceLoads(loop, preheader, latch, base, arrayType.getNumElements(), accesses, init, step);
+        }
+    }
+
+    /**
+     * 所有访问都形如 a[iv + c]，且位于同一个支配 latch 的块中；按块内顺序返回
+     */
+    private static List<Access> collectAccesses(List<Instruction> insts, PhiInst iv, BasicBlock latch) {
+        BasicBlock block = insts.get(0).getParent();
+        if (!LoopAnalysis.dominates(block, latch)) return null;
+        Set<Instruction> members = new HashSet<>(insts);
+        List<Access> accesses = new ArrayList<>();
+        for (Instruction inst : block.getInstructions()) {
+            if (!members.remove(inst)) continue;
+            Value pointer = inst instanceof LoadInst load ? load.getPointer() : ((StoreInst) inst).getPointer();
+            Long offset = AliasAnalysis.getOffsetFrom(pointer, iv);
+            if (offset == null) return null;
+            accesses.add(new Access(inst, offset));
+        }
+        // 还有访问不在这个块中
+        return members.isEmpty() ? accesses : null;
+    }
+
+    private static boolean isTouchedByCalls(List<CallInst> calls, Value base) {
+        for (CallInst call : calls) {
+            if (AliasAnalysis.getModRef(call, base) != AliasAnalysis.ModRef.NO_MOD_REF) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 循环中经由其他基址 (如绑定到同一全局数组的指针参数) 的访存可能读写该数组
+     */
+    private static boolean isTouchedByOtherAccesses(Map<Value, List<Instruction>> accessesOfBase, Value base) {
+        for (Map.Entry<Value, List<Instruction>> entry : accessesOfBase.entrySet()) {
+            if (entry.getKey() == base) continue;
+            for (Instruction inst : entry.getValue()) {
+                Value pointer = inst instanceof LoadInst load ? load.getPointer() : ((StoreInst) inst).getPointer();
+                if (AliasAnalysis.mayAlias(pointer, base)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static void replaceLoads(Loop loop, BasicBlock preheader, BasicBlock latch, Value base, int length,
+                                     List<Access> accesses, int init, int step) {
+        for (int i = 0; i < accesses.size(); i++) {
+            Access access = accesses.get(i);
+            if (!(access.inst instanceof LoadInst load)) continue;
+            // 本轮之前已经访问过同一元素：块内的冗余由 GVN 处理
+            if (findLast(accesses, access.offset, i) != null) continue;
+            // 上一轮结束时 a[i + c + s] 的值
+            Access source = findLast(accesses, access.offset + step, accesses.size());
+            if (source == null) continue;
+            long first = init + access.offset;
+            if (first < 0 || first >= length) continue;
+
+            GepInst gep = newGep(base, (int) first);
+            preheader.addInstruction(gep);
+            LoadInst preload = new LoadInst(newName(), gep);
+            preheader.addInstruction(preload);
+
+            PhiInst phi = new PhiInst(IntegerType.get32(), loop.getHeader(), new ArrayList<>());
+            phi.addIncoming(preload, preheader);
+            phi.addIncoming(source.value(), latch);
+            loop.getHeader().addInstruction(phi);
+
+            // source 可能正是之后被替换的 load，替换时 Phi 的入口值会随之更新
+            load.replaceAllUsesWith(phi);
+            load.removeOperands();
+            load.getParent().getInstructions().remove(load);
+            accesses.set(i, new Access(phi, access.offset));
+        }
+    }
+
+    /**
+     * accesses[0, end) 中对偏移 offset 的最后一次访问
+     */
+    private static Access findLast(List<Access> accesses, long offset, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (accesses.get(i).offset == offset) return accesses.get(i);
+        }
+        return null;
+    }
+
+    private static Value getIncoming(PhiInst phi, BasicBlock block) {
+        for (int i = 0; i < phi.getNumIncoming(); i++) {
+            if (phi.getIncomingBlock(i) == block) return phi.getIncomingValue(i);
+        }
+        return null;
+    }
+
+    private static Integer getConstant(Value v) {
+        return v instanceof ConstInt c ? c.getValue() : null;
+    }
+
+    /**
+     * next = iv + s 时返回 s
+     */
+    private static Integer getStep(PhiInst iv, Value next) {
+        if (!(next instanceof BinaryInst bin)) return null;
+        if (bin.getOpCode() == BinaryOpCode.ADD) {
+            if (bin.getOperand(0) == iv) return getConstant(bin.getOperand(1));
+            if (bin.getOperand(1) == iv) return getConstant(bin.getOperand(0));
+        } else if (bin.getOpCode() == BinaryOpCode.SUB && bin.getOperand(0) == iv) {
+            Integer c = getConstant(bin.getOperand(1));
+            return c == null ? null : -c;
+        }
+        return null;
+    }
+
+    private static GepInst newGep(Value base, int index) {
+        ArrayList<Value> indices = new ArrayList<>(List.of(ConstInt.get(IntegerType.get32(), 0),
+                ConstInt.get(IntegerType.get32(), index)));
+        return new GepInst(newName(), base, indices);
+    }
+
+    private static String newName() {
+        return "%scalar_" + (tempCounter++);
+    }
+}
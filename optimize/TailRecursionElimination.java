@@ -0,0 +1,181 @@
+package optimize;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+import middle.component.type.IntegerType;
+import middle.component.type.VoidType;
+
+import java.util.*;
+
+/**
+ * 尾递归消除
+ * 把 "ret f(args)" 形式的自身调用改写为跳回函数开头的循环：
+ * 新建入口块跳转到原入口块，原入口块为每个参数建立 Phi，尾调用点改为向 Phi 传入实参并跳回。
+ * 对 "ret f(args) + c" / "ret f(args) * c" (c 不依赖该调用) 引入累加器 acc：
+ * acc 从单位元开始，尾调用点更新 acc = acc op c，其余返回点改为返回 acc op v。
+ * 需要在 Mem2Reg 之后运行。
+ */
+public class TailRecursionElimination {
+    private static int tempCounter = 0;
+
+    public static void run(Module module) {
+        for (Function function : module.getFunctions()) {
+            if (function.isDeclaration()) continue;
+            if (function.getName().equals("main") || function.getName().equals("@main")) continue;
+            runOnFunction(function);
+        }
+        // 重建 CFG (前驱/后继)
+        Mem2Reg.run(module, false);
+    }
+
+    /**
+     * 尾调用点：call 之后紧跟 ret，或紧跟一条累加运算再 ret
+     */
+    private static class TailSite {
+        final CallInst call;
+        final BinaryInst accInst; // 为 null 表示直接返回调用结果
+        final RetInst ret;
+
+        TailSite(CallInst call, BinaryInst accInst, RetInst ret) {
+            this.call = call;
+            this.accInst = accInst;
+            this.ret = ret;
+        }
+
+        // 累加运算中与调用结果相结合的另一个操作数
+        Value accOperand() {
+            return accInst.getOp1() == call ? accInst.getOp2() : accInst.getOp1();
+        }
+    }
+
+    private static void runOnFunction(Function function) {
+        List<TailSite> sites = new ArrayList<>();
+        for (BasicBlock bb : function.getBasicBlocks()) {
+            TailSite site = matchTailSite(function, bb);
+            if (site != null) sites.add(site);
+        }
+        if (sites.isEmpty()) return;
+
+        // 只能使用一种累加运算：选择出现次数更多的那种，另一种的调用点保持原样
+        int addCount = 0, mulCount = 0;
+        for (TailSite site : sites) {
+            if (site.accInst == null) continue;
+            if (site.accInst.getOpCode() == BinaryOpCode.ADD) addCount++;
+            else mulCount++;
+        }
+        BinaryOpCode accOp = null;
+        if (addCount + mulCount > 0) {
+            accOp = addCount >= mulCount ? BinaryOpCode.ADD : BinaryOpCode.MUL;
+        }
+        final BinaryOpCode chosenOp = accOp;
+        sites.removeIf(site -> site.accInst != null && site.accInst.getOpCode() != chosenOp);
+
+        // 1. 新入口块：原入口块成为循环头，局部数组的 alloca 移到新入口块
+        BasicBlock header = function.getEntryBlock();
+        BasicBlock entry = new BasicBlock("tre_entry" + (tempCounter++), null);
+        entry.setParent(function);
+        function.getBasicBlocks().addFirst(entry);
+        for (Instruction inst : new ArrayList<>(header.getInstructions())) {
+            if (inst instanceof AllocInst) {
+                header.getInstructions().remove(inst);
+                entry.addInstruction(inst);
+            }
+        }
+        entry.addInstruction(new BrInst(header));
+
+        // 2. 每个参数在循环头建立 Phi
+        List<PhiInst> paramPhis = new ArrayList<>();
+        for (FuncParam param : function.getParams()) {
+            PhiInst phi = new PhiInst(param.getType(), header, new ArrayList<>());
+            param.replaceAllUsesWith(phi);
+            phi.addIncoming(param, entry);
+            header.addInstruction(phi);
+            paramPhis.add(phi);
+        }
+
+        // 3. 累加器：其余返回点改为返回 acc op v
+        PhiInst accPhi = null;
+        if (accOp != null) {
+            accPhi = new PhiInst(IntegerType.get32(), header, new ArrayList<>());
+            accPhi.addIncoming(ConstInt.get(IntegerType.get32(), accOp == BinaryOpCode.ADD ? 0 : 1), entry);
+            header.addInstruction(accPhi);
+
+            Set<RetInst> tailRets = new HashSet<>();
+            for (TailSite site : sites) tailRets.add(site.ret);
+            for (BasicBlock bb : function.getBasicBlocks()) {
+                if (bb.getLastInstruction() instanceof RetInst ret && !tailRets.contains(ret)) {
+                    BinaryInst result = newAccInst(accOp, accPhi, ret.getReturnValue());
+                    insertBefore(ret, result);
+                    ret.setOperand(0, result);
+                }
+            }
+        }
+
+        // 4. 尾调用点改为跳回循环头
+        for (TailSite site : sites) {
+            BasicBlock bb = site.call.getParent();
+            for (int i = 0; i < paramPhis.size(); i++) {
+                paramPhis.get(i).addIncoming(site.call.getArg(i), bb);
+            }
+            if (accPhi != null) {
+                Value nextAcc = accPhi;
+                if (site.accInst != null) {
+                    BinaryInst update = newAccInst(accOp, accPhi, site.accOperand());
+                    insertBefore(site.call, update);
+                    nextAcc = update;
+                }
+                accPhi.addIncoming(nextAcc, bb);
+            }
+            site.ret.remove();
+            if (site.accInst != null) site.accInst.remove();
+            site.call.remove();
+            bb.addInstruction(new BrInst(header));
+        }
+    }
+
+    private static TailSite matchTailSite(Function function, BasicBlock bb) {
+        if (!(bb.getLastInstruction() instanceof RetInst ret)) return null;
+        List<Instruction> insts = bb.getInstructions();
+        int retIdx = insts.size() - 1;
+        if (retIdx < 1) return null;
+
+        // ret f(args) / call void f(args); ret void
+        if (insts.get(retIdx - 1) instanceof CallInst call && isSelfCall(function, call)) {
+            boolean returnsCall = function.getReturnType() instanceof VoidType
+                    ? ret.getNumOperands() == 0
+                    : ret.getNumOperands() > 0 && ret.getReturnValue() == call;
+            if (returnsCall && call.getUseList().size() <= 1) {
+                return new TailSite(call, null, ret);
+            }
+            return null;
+        }
+
+        // ret f(args) op c
+        if (retIdx < 2 || ret.getNumOperands() == 0) return null;
+        if (!(insts.get(retIdx - 1) instanceof BinaryInst bin) || ret.getReturnValue() != bin) return null;
+        if (bin.getOpCode() != BinaryOpCode.ADD && bin.getOpCode() != BinaryOpCode.MUL) return null;
+        if (!(insts.get(retIdx - 2) instanceof CallInst call) || !isSelfCall(function, call)) return null;
+        // 调用结果恰好是其中一个操作数
+        if ((bin.getOp1() == call) == (bin.getOp2() == call)) return null;
+        if (call.getUseList().size() != 1 || bin.getUseList().size() != 1) return null;
+        return new TailSite(call, bin, ret);
+    }
+
+    private static boolean isSelfCall(Function function, CallInst call) {
+        // 指向本函数局部数组的实参在循环中会与下一轮的局部数组重叠，不能改写
+        return call.getFunction() == function && call.hasOnlyNonLocalPointerArgs();
+    }
+
+    private static BinaryInst newAccInst(BinaryOpCode op, Value acc, Value v) {
+        BinaryInst inst = new BinaryInst(op, acc, v);
+        inst.setName("%tre_acc_" + (tempCounter++));
+        return inst;
+    }
+
+    private static void insertBefore(Instruction pos, Instruction inst) {
+        BasicBlock bb = pos.getParent();
+        bb.getInstructions().add(bb.getInstructions().indexOf(pos), inst);
+        inst.setParent(bb);
+    }
+}
@@ -0,0 +1,211 @@
+package optimize.analysis;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.type.ArrayType;
+import middle.component.type.PointerType;
+import middle.component.type.Type;
+
+import java.util.*;
+
+/**
+ * 别名分析
+ * 回答两个指针是否指向同一个 i32 元素 (NO / MAY / MUST)，以及一次调用是否会读写某个地址 (mod/ref)。
+ * 1. 基址：剥去 GEP 链得到基址对象。不同的 AllocInst / GlobalVar 互不重叠；
+ *    指针参数只可能指向调用者的内存，与本函数的 AllocInst 不重叠。
+ * 2. 偏移：按数组类型的步长把 GEP 链展开为 "常量 + Σ 系数 × 变量"，
+ *    同一基址上变量部分相同时，比较常量部分即可得到 NO / MUST。
+ * 3. 逃逸：地址只被 load/store/GEP 使用的局部数组不会被任何调用读写。
+ * 调用的读写信息来自 SideEffectAnalysis，使用前需要先运行它。
+ */
+public class AliasAnalysis {
+
+    public enum AliasResult {
+        NO_ALIAS, MAY_ALIAS, MUST_ALIAS
+    }
+
+    public enum ModRef {
+        NO_MOD_REF, REF, MOD, MOD_REF;
+
+        public boolean isMod() {
+            return this == MOD || this == MOD_REF;
+        }
+
+        public boolean isRef() {
+            return this == REF || this == MOD_REF;
+        }
+    }
+
+    /**
+     * 指针的线性形式：base + constant + Σ terms[v] * v (以 i32 元素计)
+     */
+    private static class Location {
+        Value base;
+        long constant = 0;
+        final Map<Value, Long> terms = new HashMap<>();
+        boolean known = true;
+    }
+
+    public static AliasResult alias(Value p, Value q) {
+        if (p == q) return AliasResult.MUST_ALIAS;
+        Location lp = decompose(p);
+        Location lq = decompose(q);
+
+        if (lp.base != lq.base) {
+            return isDistinctObjects(lp.base, lq.base) ? AliasResult.NO_ALIAS : AliasResult.MAY_ALIAS;
+        }
+        if (!lp.known || !lq.known || !lp.terms.equals(lq.terms)) return AliasResult.MAY_ALIAS;
+        return lp.constant == lq.constant ? AliasResult.MUST_ALIAS : AliasResult.NO_ALIAS;
+    }
+
+    public static boolean mayAlias(Value p, Value q) {
+        return alias(p, q) != AliasResult.NO_ALIAS;
+    }
+
+    public static boolean mustAlias(Value p, Value q) {
+        return alias(p, q) == AliasResult.MUST_ALIAS;
+    }
+
+    /**
+     * pointer 是否为 "基址 + iv + 常量" 的形式 (以 i32 元素计)，是则返回该常量，否则返回 null
+     */
+    public static Long getOffsetFrom(Value pointer, Value iv) {
+        Location loc = decompose(pointer);
+        if (!loc.known || loc.terms.size() != 1 || !Long.valueOf(1).equals(loc.terms.get(iv))) return null;
+        return loc.constant;
+    }
+
+    /**
+     * pointer 相对基址的常量偏移 (以 i32 元素计)，含变量下标时返回 null
+     */
+    public static Long getConstantOffset(Value pointer) {
+        Location loc = decompose(pointer);
+        if (!loc.known || !loc.terms.isEmpty()) return null;
+        return loc.constant;
+    }
+
+    /**
+     * 调用对 pointer 指向的内存的读写
+     */
+    public static ModRef getModRef(CallInst call, Value pointer) {
+        Value base = SideEffectAnalysis.getBase(pointer);
+        if (base instanceof AllocInst alloc && !isEscaped(alloc)) return ModRef.NO_MOD_REF;
+        // 记忆表对副作用分析不可见，但被记忆化的函数确实会读写它
+        if (base instanceof GlobalVar gv && SideEffectAnalysis.isCacheTable(gv)) {
+            return call.getFunction().isDeclaration() ? ModRef.NO_MOD_REF : ModRef.MOD_REF;
+        }
+        boolean mod = SideEffectAnalysis.mayWriteMemory(call);
+        boolean ref = SideEffectAnalysis.mayReadMemory(call);
+        if (mod && ref) return ModRef.MOD_REF;
+        if (mod) return ModRef.MOD;
+        return ref ? ModRef.REF : ModRef.NO_MOD_REF;
+    }
+
+    /**
+     * 局部数组的地址 (经过 GEP) 是否会被 load/store/GEP 以外的指令使用 (传给函数、参与 Phi 等)
+     */
+    public static boolean isEscaped(Value pointer) {
+        for (Use use : pointer.getUseList()) {
+            User user = use.getUser();
+            if (user instanceof LoadInst) continue;
+            if (user instanceof StoreInst store && store.getPointer() == pointer && store.getValue() != pointer) continue;
+            if (user instanceof GepInst gep && gep.getPointer() == pointer) {
+                if (isEscaped(gep)) return true;
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 写入该地址的 store 是否一定不会被读到：基址是不逃逸、且从未被 load 的局部数组
+     */
+    public static boolean isUnread(Value pointer) {
+        Value base = SideEffectAnalysis.getBase(pointer);
+        return base instanceof AllocInst alloc && !isEscaped(alloc) && !hasLoad(alloc);
+    }
+
+    private static boolean hasLoad(Value pointer) {
+        for (User user : pointer.getUsers()) {
+            if (user instanceof LoadInst) return true;
+            if (user instanceof GepInst gep && gep.getPointer() == pointer && hasLoad(gep)) return true;
+        }
+        return false;
+    }
+
+    private static boolean isDistinctObjects(Value a, Value b) {
+        boolean objA = a instanceof AllocInst || a instanceof GlobalVar;
+        boolean objB = b instanceof AllocInst || b instanceof GlobalVar;
+        if (objA && objB) return true;
+        // 指针参数指向调用者的内存，与本次调用新分配的局部数组不重叠
+        return (a instanceof FuncParam && b instanceof AllocInst) || (a instanceof AllocInst && b instanceof FuncParam);
+    }
+
+    // --- 偏移展开 ---
+
+    private static Location decompose(Value pointer) {
+        Location loc = new Location();
+        Deque<GepInst> chain = new ArrayDeque<>();
+        while (pointer instanceof GepInst gep) {
+            chain.push(gep);
+            pointer = gep.getPointer();
+        }
+        loc.base = pointer;
+        // 从最内层的 GEP 开始，按类型计算每个下标的步长
+        for (GepInst gep : chain) {
+            if (!(gep.getPointer().getType() instanceof PointerType ptrType)) {
+                loc.known = false;
+                return loc;
+            }
+            Type type = ptrType.getPointeeType();
+            for (int i = 1; i < gep.getNumOperands(); i++) {
+                if (i > 1) {
+                    if (!(type instanceof ArrayType arrayType)) {
+                        loc.known = false;
+                        return loc;
+                    }
+                    type = arrayType.getElementType();
+                }
+                addIndex(loc, gep.getOperand(i), sizeOf(type));
+            }
+        }
+        return loc;
+    }
+
+    /**
+     * 下标 index 乘以步长 stride 加入线性形式，识别 "v + c" / "v - c"
+     */
+    private static void addIndex(Location loc, Value index, long stride) {
+        if (index instanceof ConstInt c) {
+            loc.constant += c.getValue() * stride;
+            return;
+        }
+        if (index instanceof BinaryInst bin) {
+            Value lhs = bin.getOperand(0);
+            Value rhs = bin.getOperand(1);
+            if (bin.getOpCode() == BinaryOpCode.ADD && (lhs instanceof ConstInt || rhs instanceof ConstInt)) {
+                addIndex(loc, lhs, stride);
+                addIndex(loc, rhs, stride);
+                return;
+            }
+            if (bin.getOpCode() == BinaryOpCode.SUB && rhs instanceof ConstInt c) {
+                addIndex(loc, lhs, stride);
+                loc.constant -= c.getValue() * stride;
+                return;
+            }
+        }
+        loc.terms.merge(index, stride, Long::sum);
+        loc.terms.values().removeIf(coefficient -> coefficient == 0);
+    }
+
+    /**
+     * 类型大小 (以 i32 元素计)
+     */
+    private static long sizeOf(Type type) {
+        if (type instanceof ArrayType arrayType) {
+            return arrayType.getNumElements() * sizeOf(arrayType.getElementType());
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,140 @@
+package optimize.analysis;
+
+import middle.component.model.BasicBlock;
+import middle.component.model.Function;
+
+import java.util.*;
+
+/**
+ * 循环分析 (自然循环)
+ * 回边 latch -> header 满足 header 支配 latch；同一个 header 的所有回边合并为一个循环，
+ * 循环体为不经过 header 能逆向到达 latch 的所有块。
+ * 依赖 CFG 前驱/后继与支配信息 (先运行 Mem2Reg.run(module, false))。
+ */
+public class LoopAnalysis {
+
+    public static class Loop {
+        private final BasicBlock header;
+        private final Set<BasicBlock> blocks = new LinkedHashSet<>();
+        private final List<BasicBlock> latches = new ArrayList<>();
+        private Loop parent = null;
+        private int depth = 1;
+
+        Loop(BasicBlock header) {
+            this.header = header;
+        }
+
+        public BasicBlock getHeader() { return header; }
+        public Set<BasicBlock> getBlocks() { return blocks; }
+        public List<BasicBlock> getLatches() { return latches; }
+        public Loop getParent() { return parent; }
+        public int getDepth() { return depth; }
+
+        public boolean contains(BasicBlock bb) {
+            return blocks.contains(bb);
+        }
+
+        /**
+         * 唯一的循环外前驱，且它只跳向 header；不存在时返回 null
+         */
+        public BasicBlock getPreheader() {
+            BasicBlock preheader = null;
+            for (BasicBlock pred : header.getPrevBlocks()) {
+                if (contains(pred)) continue;
+                if (preheader != null) return null;
+                preheader = pred;
+            }
+            if (preheader == null || preheader.getNextBlocks().size() != 1) return null;
+            return preheader;
+        }
+
+        /**
+         * 循环外、有循环内前驱的块
+         */
+        public List<BasicBlock> getExitBlocks() {
+            List<BasicBlock> exits = new ArrayList<>();
+            for (BasicBlock bb : blocks) {
+                for (BasicBlock succ : bb.getNextBlocks()) {
+                    if (!contains(succ) && !exits.contains(succ)) exits.add(succ);
+                }
+            }
+            return exits;
+        }
+
+        /**
+         * 每个出口块的前驱都在循环内 (出口块只能从循环进入)
+         */
+        public boolean hasDedicatedExits() {
+            for (BasicBlock exit : getExitBlocks()) {
+                for (BasicBlock pred : exit.getPrevBlocks()) {
+                    if (!contains(pred)) return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 从循环内跳出循环的块
+         */
+        public List<BasicBlock> getExitingBlocks() {
+            List<BasicBlock> exiting = new ArrayList<>();
+            for (BasicBlock bb : blocks) {
+                for (BasicBlock succ : bb.getNextBlocks()) {
+                    if (!contains(succ)) {
+                        exiting.add(bb);
+                        break;
+                    }
+                }
+            }
+            return exiting;
+        }
+    }
+
+    /**
+     * 找出函数中的所有循环，按嵌套深度从内到外排序
+     */
+    public static List<Loop> run(Function function) {
+        Map<BasicBlock, Loop> loopOfHeader = new LinkedHashMap<>();
+        for (BasicBlock bb : function.getBasicBlocks()) {
+            for (BasicBlock succ : bb.getNextBlocks()) {
+                if (!dominates(succ, bb)) continue;
+                Loop loop = loopOfHeader.computeIfAbsent(succ, Loop::new);
+                loop.latches.add(bb);
+                collectBody(loop, bb);
+            }
+        }
+
+        // 嵌套关系：包含它的最小循环为父循环
+        List<Loop> loops = new ArrayList<>(loopOfHeader.values());
+        for (Loop loop : loops) {
+            for (Loop other : loops) {
+                if (other == loop || !other.blocks.containsAll(loop.blocks)) continue;
+                if (loop.parent == null || loop.parent.blocks.size() > other.blocks.size()) {
+                    loop.parent = other;
+                }
+            }
+        }
+        for (Loop loop : loops) {
+            int depth = 1;
+            for (Loop p = loop.parent; p != null; p = p.parent) depth++;
+            loop.depth = depth;
+        }
+        loops.sort((a, b) -> b.depth - a.depth);
+        return loops;
+    }
+
+    private static void collectBody(Loop loop, BasicBlock latch) {
+        loop.blocks.add(loop.header);
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        stack.push(latch);
+        while (!stack.isEmpty()) {
+            BasicBlock bb = stack.pop();
+            if (!loop.blocks.add(bb)) continue;
+            for (BasicBlock pred : bb.getPrevBlocks()) stack.push(pred);
+        }
+    }
+
+    public static boolean dominates(BasicBlock a, BasicBlock b) {
+        return a.getDominateBlocks() != null && a.getDominateBlocks().contains(b);
+    }
+}
@@ -0,0 +1,143 @@
+package optimize.analysis;
+
+import middle.component.inst.RetInst;
+import middle.component.model.BasicBlock;
+import middle.component.model.Function;
+
+import java.util.*;
+
+/**
+ * 后支配与控制依赖
+ * 在反向 CFG 上求支配树 (Cooper-Harvey-Kennedy 迭代算法)，所有 ret 块连到一个虚拟出口。
+ * 块 B 控制依赖于块 A：A 的某条出边一定到达 B，另一条出边却可能绕过 B
+ * (即 B 在 A 的后支配边界中)。
+ * 依赖 CFG 前驱/后继 (先运行 Mem2Reg.run(module, false))。
+ */
+public class PostDominance {
+    // 块 -> 直接后支配者，null 表示虚拟出口
+    private final Map<BasicBlock, BasicBlock> ipdom = new HashMap<>();
+    // 块 -> 它控制依赖的块
+    private final Map<BasicBlock, Set<BasicBlock>> controlDeps = new HashMap<>();
+
+    private PostDominance() {
+    }
+
+    /**
+     * @return 后支配信息；存在到不了 ret 的可达块 (无出口的循环) 时返回 null
+     */
+    public static PostDominance run(Function function) {
+        List<BasicBlock> blocks = reachableBlocks(function);
+
+        // 1. 反向 CFG 上从虚拟出口出发的后序，编号 0 .. n-1，虚拟出口编号 n
+        Map<BasicBlock, Integer> order = new HashMap<>();
+        List<BasicBlock> postOrder = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        for (BasicBlock bb : blocks) {
+            if (bb.getTerminator() instanceof RetInst && visited.add(bb)) {
+                reversePostOrderDfs(bb, visited, postOrder, new HashSet<>(blocks));
+            }
+        }
+        if (postOrder.size() != blocks.size()) return null;
+        for (int i = 0; i < postOrder.size(); i++) order.put(postOrder.get(i), i);
+        int exit = postOrder.size();
+
+        // 2. 迭代求直接后支配者 (反向 CFG 中的前驱 = CFG 后继)
+        int[] idom = new int[exit + 1];
+        Arrays.fill(idom, -1);
+        idom[exit] = exit;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = postOrder.size() - 1; i >= 0; i--) {
+                BasicBlock bb = postOrder.get(i);
+                int newIdom = bb.getTerminator() instanceof RetInst ? exit : -1;
+                for (BasicBlock succ : bb.getNextBlocks()) {
+                    Integer s = order.get(succ);
+                    if (s == null || idom[s] == -1) continue;
+                    newIdom = newIdom == -1 ? s : intersect(idom, s, newIdom);
+                }
+                if (idom[i] != newIdom) {
+                    idom[i] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        PostDominance pd = new PostDominance();
+        for (int i = 0; i < postOrder.size(); i++) {
+            pd.ipdom.put(postOrder.get(i), idom[i] == exit ? null : postOrder.get(idom[i]));
+            pd.controlDeps.put(postOrder.get(i), new LinkedHashSet<>());
+        }
+
+        // 3. 控制依赖：从 A 的每个后继沿后支配树向上走到 ipdom(A) 为止，途经的块都依赖于 A
+        for (BasicBlock a : blocks) {
+            if (a.getNextBlocks().size() < 2) continue;
+            BasicBlock stop = pd.ipdom.get(a);
+            for (BasicBlock succ : a.getNextBlocks()) {
+                for (BasicBlock runner = succ; runner != null && runner != stop; runner = pd.ipdom.get(runner)) {
+                    pd.controlDeps.get(runner).add(a);
+                }
+            }
+        }
+        return pd;
+    }
+
+    /**
+     * 直接后支配者，null 表示虚拟出口
+     */
+    public BasicBlock getImmediatePostDominator(BasicBlock bb) {
+        return ipdom.get(bb);
+    }
+
+    /**
+     * bb 控制依赖的块 (它们的分支决定 bb 是否执行)
+     */
+    public Set<BasicBlock> getControlDependences(BasicBlock bb) {
+        return controlDeps.getOrDefault(bb, Set.of());
+    }
+
+    private static int intersect(int[] idom, int a, int b) {
+        while (a != b) {
+            while (a < b) a = idom[a];
+            while (b < a) b = idom[b];
+        }
+        return a;
+    }
+
+    private static void reversePostOrderDfs(BasicBlock start, Set<BasicBlock> visited,
+                                            List<BasicBlock> postOrder, Set<BasicBlock> reachable) {
+        Deque<BasicBlock> path = new ArrayDeque<>();
+        Deque<Iterator<BasicBlock>> stack = new ArrayDeque<>();
+        path.push(start);
+        stack.push(start.getPrevBlocks().iterator());
+        while (!stack.isEmpty()) {
+            Iterator<BasicBlock> it = stack.peek();
+            if (it.hasNext()) {
+                BasicBlock pred = it.next();
+                if (reachable.contains(pred) && visited.add(pred)) {
+                    path.push(pred);
+                    stack.push(pred.getPrevBlocks().iterator());
+                }
+            } else {
+                stack.pop();
+                postOrder.add(path.pop());
+            }
+        }
+    }
+
+    private static List<BasicBlock> reachableBlocks(Function function) {
+        List<BasicBlock> blocks = new ArrayList<>();
+        Set<BasicBlock> seen = new HashSet<>();
+        Deque<BasicBlock> worklist = new ArrayDeque<>();
+        worklist.add(function.getEntryBlock());
+        seen.add(function.getEntryBlock());
+        while (!worklist.isEmpty()) {
+            BasicBlock bb = worklist.poll();
+            blocks.add(bb);
+            for (BasicBlock succ : bb.getNextBlocks()) {
+                if (seen.add(succ)) worklist.add(succ);
+            }
+        }
+        return blocks;
+    }
+}
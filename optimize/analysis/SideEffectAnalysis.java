@@ -0,0 +1,165 @@
+package optimize.analysis;
+
+import middle.component.inst.*;
+import middle.component.model.*;
+import middle.component.model.Module;
+
+import java.util.*;
+
+/**
+ * 函数副作用分析 (过程间)
+ * 在调用图上迭代到不动点，把每个函数归为三类：
+ * PURE      - 不读写调用者可见的内存、不做 IO，结果只取决于参数
+ * READ_ONLY - 只读取全局变量/指针参数指向的内存，不写、不做 IO
+ * EFFECTFUL - 写调用者可见的内存或做 IO (库函数声明一律视为 IO)
+ * 对本函数局部数组 (alloca) 的读写不可见，不计入副作用；编译器生成的缓存表 (见 Memoization) 同样不计入。
+ */
+public class SideEffectAnalysis {
+
+    public enum Effect {
+        PURE, READ_ONLY, EFFECTFUL
+    }
+
+    private static final Map<Function, Summary> summaries = new HashMap<>();
+    // 编译器私有的缓存表：读写它们不改变程序的可观察行为
+    private static final Set<GlobalVar> cacheTables = new HashSet<>();
+
+    private static class Summary {
+        boolean readsMemory = false;
+        boolean writesMemory = false;
+        boolean doesIO = false;
+
+        boolean merge(Summary other) {
+            boolean changed = false;
+            if (other.readsMemory && !readsMemory) { readsMemory = true; changed = true; }
+            if (other.writesMemory && !writesMemory) { writesMemory = true; changed = true; }
+            if (other.doesIO && !doesIO) { doesIO = true; changed = true; }
+            return changed;
+        }
+    }
+
+    public static void run(Module module) {
+        summaries.clear();
+
+        // 1. 库函数声明：IO
+        for (Function func : module.getDeclarations()) {
+            Summary summary = new Summary();
+            summary.doesIO = true;
+            summaries.put(func, summary);
+        }
+        for (Function func : module.getFunctions()) {
+            Summary summary = new Summary();
+            if (func.isDeclaration()) {
+                summary.doesIO = true;
+            }
+            summaries.put(func, summary);
+        }
+
+        // 2. 函数体内直接的读写
+        for (Function func : module.getFunctions()) {
+            if (func.isDeclaration()) continue;
+            Summary summary = summaries.get(func);
+            for (BasicBlock bb : func.getBasicBlocks()) {
+                for (Instruction inst : bb.getInstructions()) {
+                    if (inst instanceof LoadInst load && isVisible(load.getPointer())) {
+                        summary.readsMemory = true;
+                    } else if (inst instanceof StoreInst store && isVisible(store.getPointer())) {
+                        summary.writesMemory = true;
+                    }
+                }
+            }
+        }
+
+        // 3. 沿调用边传播到不动点 (递归函数的初始假设是无副作用)
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Function func : module.getFunctions()) {
+                if (func.isDeclaration()) continue;
+                Summary summary = summaries.get(func);
+                for (BasicBlock bb : func.getBasicBlocks()) {
+                    for (Instruction inst : bb.getInstructions()) {
+                        if (inst instanceof CallInst call) {
+                            changed |= summary.merge(summaryOf(call));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 登记编译器生成的缓存表
+     */
+    public static void addCacheTable(GlobalVar table) {
+        cacheTables.add(table);
+    }
+
+    public static boolean isCacheTable(GlobalVar gv) {
+        return cacheTables.contains(gv);
+    }
+
+    public static Effect getEffect(Function func) {
+        Summary summary = summaries.get(func);
+        if (summary == null || summary.doesIO || summary.writesMemory) return Effect.EFFECTFUL;
+        return summary.readsMemory ? Effect.READ_ONLY : Effect.PURE;
+    }
+
+    /**
+     * 调用结果只取决于实参 (相同实参的两次调用可以合并)
+     */
+    public static boolean isPure(CallInst call) {
+        return getEffect(call.getFunction()) == Effect.PURE;
+    }
+
+    /**
+     * 调用没有副作用 (结果不被使用时可以删除)
+     */
+    public static boolean hasNoSideEffect(CallInst call) {
+        return getEffect(call.getFunction()) != Effect.EFFECTFUL;
+    }
+
+    /**
+     * 调用可能写调用者可见的内存 (会使之前读到的内存值失效)
+     */
+    public static boolean mayWriteMemory(CallInst call) {
+        Summary summary = summaries.get(call.getFunction());
+        return summary == null || summary.writesMemory;
+    }
+
+    /**
+     * 调用可能读调用者可见的内存 (之前写入的值不能当作死存储删除)
+     */
+    public static boolean mayReadMemory(CallInst call) {
+        Summary summary = summaries.get(call.getFunction());
+        return summary == null || summary.readsMemory;
+    }
+
+    private static Summary summaryOf(CallInst call) {
+        Summary summary = summaries.get(call.getFunction());
+        if (summary == null) {
+            summary = new Summary();
+            summary.doesIO = true;
+        }
+        return summary;
+    }
+
+    /**
+     * 指针指向的内存是否对调用者可见：局部数组与缓存表不可见，全局变量与指针参数可见
+     */
+    private static boolean isVisible(Value pointer) {
+        Value base = getBase(pointer);
+        if (base instanceof AllocInst) return false;
+        return !(base instanceof GlobalVar gv && cacheTables.contains(gv));
+    }
+
+    /**
+     * 剥去 GEP 得到指针的基址 (AllocInst / GlobalVar / FuncParam 等)
+     */
+    public static Value getBase(Value pointer) {
+        while (pointer instanceof GepInst gep) {
+            pointer = gep.getPointer();
+        }
+        return pointer;
+    }
+}